@@ -0,0 +1,59 @@
+package org.petapico.npop.benchmark;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.petapico.npop.Filter;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterBenchmark {
+
+	/**
+	 * Number of entity URIs in the filter term file (-F), drawn from the same vocabulary as the
+	 * nanopubs.
+	 */
+	@Param({"1000"})
+	public int filterTerms;
+
+	private File filterFile;
+	private Filter filter;
+
+	@Setup
+	public void setup() throws Exception {
+		filterFile = File.createTempFile("npop-benchmark-", ".txt");
+		PrintStream out = new PrintStream(filterFile);
+		for (int i = 0; i < filterTerms; i++) {
+			out.println(SyntheticNanopubs.getEntity(i * 7).stringValue());
+		}
+		out.close();
+		filter = Filter.getInstance("-F " + filterFile.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		filterFile.delete();
+	}
+
+	@Benchmark
+	public boolean matchesFilter(NanopubData data) {
+		return filter.matchesFilter(data.next());
+	}
+
+	@Benchmark
+	public boolean isExampleNanopub(NanopubData data) {
+		return Filter.isExampleNanopub(data.next());
+	}
+
+}
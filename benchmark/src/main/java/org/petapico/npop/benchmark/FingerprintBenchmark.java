@@ -0,0 +1,37 @@
+package org.petapico.npop.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.petapico.npop.Fingerprint;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FingerprintBenchmark {
+
+	@Param({"DefaultFingerprints", "DisgenetFingerprints", "WikipathwaysFingerprints"})
+	public String handler;
+
+	private Fingerprint fingerprint;
+
+	@Setup
+	public void setup() {
+		// DefaultFingerprints has no no-argument constructor and is used if no handler is given
+		fingerprint = Fingerprint.getInstance(handler.equals("DefaultFingerprints") ? "" : "-h " + handler);
+	}
+
+	@Benchmark
+	public String getFingerprint(NanopubData data) throws IOException {
+		return fingerprint.getFingerprint(data.next());
+	}
+
+}
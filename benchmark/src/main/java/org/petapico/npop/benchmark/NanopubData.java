@@ -0,0 +1,46 @@
+package org.petapico.npop.benchmark;
+
+import java.util.List;
+
+import org.nanopub.Nanopub;
+import org.nanopub.NanopubImpl;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding synthetic nanopubs, which are taken in turn by the benchmark methods.
+ */
+@State(Scope.Thread)
+public class NanopubData {
+
+	private static final int NANOPUB_COUNT = 512;
+
+	@Param({"8", "128"})
+	public int assertionSize;
+
+	/**
+	 * "star": all assertion triples share one subject; "flat": two triples per subject.
+	 */
+	@Param({"star", "flat"})
+	public String shape;
+
+	private Nanopub[] nanopubs;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		NanopubImpl.ensureLoaded();
+		int subjectCount = (shape.equals("star") ? 1 : Math.max(1, assertionSize / 2));
+		List<Nanopub> list = new SyntheticNanopubs().assertionSize(assertionSize).subjectCount(subjectCount).generate(NANOPUB_COUNT);
+		nanopubs = list.toArray(new Nanopub[list.size()]);
+	}
+
+	public Nanopub next() {
+		Nanopub np = nanopubs[next];
+		next = (next + 1) % nanopubs.length;
+		return np;
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.petapico.npop.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.nanopub.Nanopub;
+import org.nanopub.NanopubCreator;
+import org.petapico.npop.Filter;
+
+/**
+ * Generates trusty nanopubs of a configurable size and shape. The same parameters and seed always
+ * give the same nanopubs.
+ */
+public class SyntheticNanopubs {
+
+	private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+	// Not below example.org, as such URIs would make Filter treat all nanopubs as examples
+	public static final String baseNamespace = "http://data.npop-benchmark.org/";
+	public static final String entityNamespace = baseNamespace + "entity/";
+	public static final String propertyNamespace = baseNamespace + "property/";
+
+	private int assertionSize = 8;
+	private int subjectCount = 2;
+	private int literalPercentage = 25;
+	private int examplePercentage = 5;
+	private int vocabularySize = 10000;
+	private long seed = 1;
+
+	/**
+	 * Number of triples in the assertion graph.
+	 */
+	public SyntheticNanopubs assertionSize(int assertionSize) {
+		this.assertionSize = assertionSize;
+		return this;
+	}
+
+	/**
+	 * Number of distinct subjects in the assertion graph (1 gives a star shape).
+	 */
+	public SyntheticNanopubs subjectCount(int subjectCount) {
+		this.subjectCount = subjectCount;
+		return this;
+	}
+
+	/**
+	 * Percentage of assertion triples with a literal object.
+	 */
+	public SyntheticNanopubs literalPercentage(int literalPercentage) {
+		this.literalPercentage = literalPercentage;
+		return this;
+	}
+
+	/**
+	 * Percentage of nanopubs that are marked as example nanopubs.
+	 */
+	public SyntheticNanopubs examplePercentage(int examplePercentage) {
+		this.examplePercentage = examplePercentage;
+		return this;
+	}
+
+	/**
+	 * Number of distinct entity URIs the assertion terms are drawn from.
+	 */
+	public SyntheticNanopubs vocabularySize(int vocabularySize) {
+		this.vocabularySize = vocabularySize;
+		return this;
+	}
+
+	public SyntheticNanopubs seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public static IRI getEntity(int i) {
+		return vf.createIRI(entityNamespace + "e" + i);
+	}
+
+	public List<Nanopub> generate(int count) throws Exception {
+		Random random = new Random(seed);
+		List<Nanopub> nanopubs = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			nanopubs.add(generate(random, i));
+		}
+		return nanopubs;
+	}
+
+	private Nanopub generate(Random random, int i) throws Exception {
+		String base = baseNamespace + "np/" + seed + "/" + i;
+		NanopubCreator c = new NanopubCreator(base);
+		c.setAssertionUri(base + "#assertion");
+		c.setProvenanceUri(base + "#provenance");
+		c.setPubinfoUri(base + "#pubinfo");
+		IRI[] subjects = new IRI[Math.max(1, subjectCount)];
+		for (int j = 0; j < subjects.length; j++) {
+			subjects[j] = getEntity(random.nextInt(vocabularySize));
+		}
+		for (int j = 0; j < assertionSize; j++) {
+			IRI subj = subjects[j % subjects.length];
+			IRI pred = (j == 0 ? RDF.TYPE : vf.createIRI(propertyNamespace + "p" + random.nextInt(50)));
+			Value obj;
+			if (random.nextInt(100) < literalPercentage) {
+				obj = vf.createLiteral("value " + random.nextInt(vocabularySize));
+			} else {
+				obj = getEntity(random.nextInt(vocabularySize));
+			}
+			c.addAssertionStatement(subj, pred, obj);
+		}
+		c.addProvenanceStatement(vf.createIRI("http://www.w3.org/ns/prov#wasDerivedFrom"), vf.createIRI(baseNamespace + "source/" + random.nextInt(100)));
+		c.addCreator(vf.createIRI("http://orcid.org/0000-0000-0000-" + (1000 + random.nextInt(10))));
+		if (random.nextInt(100) < examplePercentage) {
+			c.addPubinfoStatement(RDF.TYPE, Filter.exampleNanopubType);
+		}
+		c.addTimestamp(new Date(1500000000000L + i * 1000L));
+		return c.finalizeTrustyNanopub(false);
+	}
+
+}
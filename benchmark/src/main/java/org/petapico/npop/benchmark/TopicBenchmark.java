@@ -0,0 +1,36 @@
+package org.petapico.npop.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.petapico.npop.Topic;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TopicBenchmark {
+
+	@Param({"DefaultTopics", "DisgenetTopics", "MetaboliteSpeciesTopics", "NoTopics", "UriBaseTopics", "UriTailTopics", "WikipathwaysTopics"})
+	public String handler;
+
+	private Topic topic;
+
+	@Setup
+	public void setup() {
+		// DefaultTopics has no no-argument constructor and is used if no handler is given
+		topic = Topic.getInstance(handler.equals("DefaultTopics") ? "" : "-h " + handler);
+	}
+
+	@Benchmark
+	public String getTopic(NanopubData data) {
+		return topic.getTopic(data.next());
+	}
+
+}
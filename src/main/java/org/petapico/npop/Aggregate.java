@@ -8,28 +8,24 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.model.IRI;
-import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
-import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
-import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.util.ExternalCounter;
+import org.petapico.npop.util.TermDictionary;
+import org.petapico.npop.util.TripleCountTable;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -56,6 +52,21 @@ public class Aggregate {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
+	@com.beust.jcommander.Parameter(names = "--top", description = "Only output the given number of most frequent statements")
+	private long top = 0;
+
+	@com.beust.jcommander.Parameter(names = "--max-memory", description = "Memory budget in MB per graph type, above which counts are spilled to temporary files")
+	private long maxMemory = 0;
+
+	@com.beust.jcommander.Parameter(names = "--spill-dir", description = "Directory for temporary files (default: system temp directory)")
+	private File spillDir;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Aggregate obj = new Aggregate();
@@ -85,8 +96,8 @@ public class Aggregate {
 		return obj;
 	}
 
-	private RDFFormat rdfInFormat;
-	private Map<Statement,Integer> headCounts, assertionCounts, provCounts, pubinfoCounts;
+	private TermDictionary terms = new TermDictionary();
+	private StatementCounts headCounts, assertionCounts, provCounts, pubinfoCounts;
 
 	private void init() {
 	}
@@ -96,33 +107,21 @@ public class Aggregate {
 		if (inputNanopubs == null || inputNanopubs.isEmpty()) {
 			throw new ParameterException("No input files given");
 		}
-		if (headOutputFile != null) headCounts = new HashMap<>();
-		if (assertionOutputFile != null) assertionCounts = new HashMap<>();
-		if (provOutputFile != null) provCounts = new HashMap<>();
-		if (pubinfoOutputFile != null) pubinfoCounts = new HashMap<>();
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
-			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
+		if (headOutputFile != null) headCounts = new StatementCounts();
+		if (assertionOutputFile != null) assertionCounts = new StatementCounts();
+		if (provOutputFile != null) provCounts = new StatementCounts();
+		if (pubinfoOutputFile != null) pubinfoCounts = new StatementCounts();
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder);
+		input.process(new NanopubInput.Handler() {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException, IOException {
+				process(np);
+			}
 
-			});
+		});
 
-		}
 		writeStatementCounts(headCounts, headOutputFile);
 		writeStatementCounts(assertionCounts, assertionOutputFile);
 		writeStatementCounts(provCounts, provOutputFile);
@@ -136,30 +135,22 @@ public class Aggregate {
 		aggregate(np.getPubinfo(), np, pubinfoCounts);
 	}
 
-	private void aggregate(Set<Statement> statements, Nanopub np, Map<Statement,Integer> statementCounts) throws IOException {
+	private void aggregate(Set<Statement> statements, Nanopub np, StatementCounts statementCounts) throws IOException {
 		if (statementCounts == null) return;
 		for (Statement st : statements) {
-			Statement pst = preprocessStatement(st, np);
-			if (!statementCounts.containsKey(pst)) {
-				statementCounts.put(pst, 1);
-			} else {
-				statementCounts.put(pst, statementCounts.get(pst) + 1);
-			}
+			statementCounts.add(st, np);
 		}
 	}
 
-	private Statement preprocessStatement(Statement st, Nanopub np) {
-		Resource subject = st.getSubject();
-		IRI predicate = st.getPredicate();
-		Value object = st.getObject();
-		subject = (Resource) preprocessValue(subject, np);
-		predicate = (IRI) preprocessValue(predicate, np);
-		object = preprocessValue(object, np);
-		return vf.createStatement(subject, predicate, object);
+	private static String getStatementString(Value subject, Value predicate, Value object) {
+		String s = "(" + subject + ", " + predicate + ", " + object + ")";
+		return s.replace(dummyUriPrefix, "");
 	}
 
 	private static ValueFactory vf = SimpleValueFactory.getInstance();
 
+	private static final String dummyUriPrefix = "http://example.org/npop-dummy-uri/";
+
 	private static final IRI thisNanopub = vf.createIRI("http://example.org/npop-dummy-uri/this_nanopub");
 	private static final IRI thisHead = vf.createIRI("http://example.org/npop-dummy-uri/this_head");
 	private static final IRI thisAssertion = vf.createIRI("http://example.org/npop-dummy-uri/this_assertion");
@@ -181,28 +172,83 @@ public class Aggregate {
 		return v;
 	}
 
-	private void writeStatementCounts(final Map<Statement,Integer> statementCounts, File outputFile) throws IOException {
+	private void writeStatementCounts(StatementCounts statementCounts, File outputFile) throws IOException {
 		if (statementCounts == null) return;
 		BufferedWriter w = makeWriter(outputFile);
-		List<Statement> statementList = new ArrayList<>(statementCounts.keySet());
-		Collections.sort(statementList, new Comparator<Statement>() {
-			@Override
-			public int compare(Statement st1, Statement st2) {
-				return -statementCounts.get(st1).compareTo(statementCounts.get(st2));
-			}
-		});
-		for (Statement st : statementList) {
-			w.write(statementCounts.get(st) + " " + st.toString().replaceAll("http://example.org/npop-dummy-uri/", "") + "\n");
-		}
+		statementCounts.write(w);
 		w.flush();
 		w.close();
 	}
 
+	/**
+	 * Statement counts of one graph type. Statements are counted as triples of term IDs in memory,
+	 * or as strings in an external counter if a memory budget is given.
+	 */
+	private class StatementCounts {
+
+		private TripleCountTable table;
+		private ExternalCounter counter;
+
+		StatementCounts() {
+			if (maxMemory > 0) {
+				counter = new ExternalCounter(maxMemory * 1024 * 1024, spillDir);
+			} else {
+				table = new TripleCountTable();
+			}
+		}
+
+		void add(Statement st, Nanopub np) throws IOException {
+			Value subject = preprocessValue(st.getSubject(), np);
+			Value predicate = preprocessValue(st.getPredicate(), np);
+			Value object = preprocessValue(st.getObject(), np);
+			if (table != null) {
+				table.increment(terms.add(subject), terms.add(predicate), terms.add(object));
+			} else {
+				counter.add(getStatementString(subject, predicate, object));
+			}
+		}
+
+		void write(final BufferedWriter w) throws IOException {
+			if (counter != null) {
+				counter.forEachDescending(top, new ExternalCounter.Handler() {
+
+					@Override
+					public void handle(String statement, long count) throws IOException {
+						w.write(count + " " + statement + "\n");
+					}
+
+				});
+				return;
+			}
+			int[] entries = table.getEntriesByCount();
+			int n = (top > 0 ? (int) Math.min(top, entries.length) : entries.length);
+			int i = 0;
+			while (i < n) {
+				// statements with equal counts are ordered by their string representation:
+				int count = table.getCount(entries[i]);
+				int j = i;
+				while (j < entries.length && table.getCount(entries[j]) == count) j++;
+				List<String> group = new ArrayList<>(j - i);
+				for (int k = i; k < j; k++) {
+					int e = entries[k];
+					group.add(getStatementString(terms.getTerm(table.getSubject(e)), terms.getTerm(table.getPredicate(e)),
+							terms.getTerm(table.getObject(e))));
+				}
+				Collections.sort(group);
+				for (int k = 0; k < group.size() && i + k < n; k++) {
+					w.write(count + " " + group.get(k) + "\n");
+				}
+				i = j;
+			}
+		}
+
+	}
+
 	private BufferedWriter makeWriter(File f) throws IOException {
 		if (f == null) return null;
 		OutputStream stream = null;
 		if (f.getName().endsWith(".gz")) {
-			stream = new GZIPOutputStream(new FileOutputStream(f));
+			stream = new ParallelGzipOutputStream(new FileOutputStream(f));
 		} else {
 			stream = new FileOutputStream(f);
 		}
@@ -5,19 +5,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.trustyuri.TrustyUriException;
 
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
-import org.eclipse.rdf4j.rio.RDFFormat;
+import org.petapico.npop.io.NanopubGraph;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.PartialNanopub;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
-import org.eclipse.rdf4j.rio.Rio;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -33,6 +35,12 @@ public class Count {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Count obj = new Count();
@@ -60,56 +68,60 @@ public class Count {
 		return obj;
 	}
 
-	private RDFFormat rdfInFormat;
 	private int npCount, headCount, assertionCount, provCount, pubinfoCount;
+	private Map<File,Count> fileCounts = new IdentityHashMap<>();
 
 	public void run() throws IOException, RDFParseException, RDFHandlerException,
 			MalformedNanopubException, TrustyUriException {
 		if (inputNanopubs == null || inputNanopubs.isEmpty()) {
 			throw new ParameterException("No input files given");
 		}
-		for (File inputFile : inputNanopubs) {
-			npCount = 0;
-			headCount = 0;
-			assertionCount = 0;
-			pubinfoCount = 0;
-
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
-			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder)
+				.setGraphs(EnumSet.noneOf(NanopubGraph.class));
+		input.process(new NanopubInput.Handler() {
+
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) {
+				Count c = fileCounts.get(inputFile);
+				if (c == null) {
+					c = new Count();
+					fileCounts.put(inputFile, c);
+				}
+				c.countTriples(np);
 			}
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+			@Override
+			public void endFile(File inputFile) throws IOException {
+				Count c = fileCounts.remove(inputFile);
+				if (c == null) c = new Count();
+				c.writeCounts(inputFile, tableFile);
+			}
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					countTriples(np);
-				}
+		});
+	}
 
-			});
-			if (tableFile == null) {
-				System.out.println("Nanopublications: " + npCount);
-				System.out.println("Head triples: " + headCount + " (average: " + ((((float) headCount)) / npCount) + ")");
-				System.out.println("Assertion triples: " + assertionCount + " (average: " + ((((float) assertionCount)) / npCount) + ")");
-				System.out.println("Provenance triples: " + provCount + " (average: " + ((((float) provCount)) / npCount) + ")");
-				System.out.println("Pubinfo triples: " + pubinfoCount + " (average: " + ((((float) pubinfoCount)) / npCount) + ")");
-				int t = headCount + assertionCount + provCount + pubinfoCount;
-				System.out.println("Total triples: " + t + " (average: " + ((((float) t)) / npCount) + ")");
-			} else {
-				PrintStream st = new PrintStream(new FileOutputStream(tableFile, true));
-				st.println(inputFile.getName() + "," + npCount + "," + headCount + "," + assertionCount + "," + provCount + "," + pubinfoCount);
-				st.close();
-			}
+	private void writeCounts(File inputFile, File tableFile) throws IOException {
+		if (tableFile == null) {
+			System.out.println("Nanopublications: " + npCount);
+			System.out.println("Head triples: " + headCount + " (average: " + ((((float) headCount)) / npCount) + ")");
+			System.out.println("Assertion triples: " + assertionCount + " (average: " + ((((float) assertionCount)) / npCount) + ")");
+			System.out.println("Provenance triples: " + provCount + " (average: " + ((((float) provCount)) / npCount) + ")");
+			System.out.println("Pubinfo triples: " + pubinfoCount + " (average: " + ((((float) pubinfoCount)) / npCount) + ")");
+			int t = headCount + assertionCount + provCount + pubinfoCount;
+			System.out.println("Total triples: " + t + " (average: " + ((((float) t)) / npCount) + ")");
+		} else {
+			PrintStream st = new PrintStream(new FileOutputStream(tableFile, true));
+			st.println(inputFile.getName() + "," + npCount + "," + headCount + "," + assertionCount + "," + provCount + "," + pubinfoCount);
+			st.close();
 		}
 	}
 
 	public void countTriples(Nanopub np) {
 		npCount++;
-		headCount += np.getHead().size();
-		assertionCount += np.getAssertion().size();
-		provCount += np.getProvenance().size();
-		pubinfoCount += np.getPubinfo().size();
+		headCount += PartialNanopub.getStatementCount(np, NanopubGraph.HEAD);
+		assertionCount += PartialNanopub.getStatementCount(np, NanopubGraph.ASSERTION);
+		provCount += PartialNanopub.getStatementCount(np, NanopubGraph.PROVENANCE);
+		pubinfoCount += PartialNanopub.getStatementCount(np, NanopubGraph.PUBINFO);
 	}
 
 }
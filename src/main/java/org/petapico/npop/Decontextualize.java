@@ -8,7 +8,6 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
@@ -21,12 +20,12 @@ import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
 import org.nanopub.NanopubUtils;
 import org.petapico.npop.fingerprint.FingerprintHandler;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -46,6 +45,12 @@ public class Decontextualize {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Decontextualize obj = new Decontextualize();
@@ -64,47 +69,36 @@ public class Decontextualize {
 		}
 	}
 
-	private RDFFormat rdfInFormat;
 	private OutputStream outputStream = System.out;
 	private RDFWriter writer;
 
 	private void run() throws IOException, RDFParseException, RDFHandlerException,
 			MalformedNanopubException, TrustyUriException {
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
+		if (outputFile != null) {
+			if (outputFile.getName().endsWith(".gz")) {
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
-			if (outputFile != null) {
-				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
-				} else {
-					outputStream = new FileOutputStream(outputFile);
-				}
+				outputStream = new FileOutputStream(outputFile);
 			}
+		}
 
-			writer = Rio.createWriter(RDFFormat.NQUADS, new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
-			writer.startRDF();
+		writer = Rio.createWriter(RDFFormat.NQUADS, new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
+		writer.startRDF();
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder);
+		input.process(new NanopubInput.Handler() {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException {
+				process(np);
+			}
 
-			});
+		});
 
-			writer.endRDF();
-			outputStream.flush();
-			if (outputStream != System.out) {
-				outputStream.close();
-			}
+		writer.endRDF();
+		outputStream.flush();
+		if (outputStream != System.out) {
+			outputStream.close();
 		}
 	}
 
@@ -7,22 +7,21 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
-import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
-import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
+import org.petapico.npop.io.NanopubGraph;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -40,6 +39,12 @@ public class ExportJson {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		ExportJson obj = new ExportJson();
@@ -58,7 +63,6 @@ public class ExportJson {
 		}
 	}
 
-	private RDFFormat rdfInFormat;
 	private OutputStream outputStream = System.out;
 	private BufferedWriter writer;
 	private boolean isFirstNp;
@@ -66,45 +70,34 @@ public class ExportJson {
 
 	private void run() throws IOException, RDFParseException, RDFHandlerException,
 			MalformedNanopubException, TrustyUriException {
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
+		if (outputFile != null) {
+			if (outputFile.getName().endsWith(".gz")) {
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
-			if (outputFile != null) {
-				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
-				} else {
-					outputStream = new FileOutputStream(outputFile);
-				}
+				outputStream = new FileOutputStream(outputFile);
 			}
+		}
 
-			writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-			writer.write("[\n");
-			isFirstNp = true;
+		writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+		writer.write("[\n");
+		isFirstNp = true;
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder)
+				.setGraphs(EnumSet.of(NanopubGraph.ASSERTION, NanopubGraph.PROVENANCE, NanopubGraph.PUBINFO));
+		input.process(new NanopubInput.Handler() {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException, IOException {
+				process(np);
+			}
 
-			});
+		});
 
-			writer.write("\n]\n");
+		writer.write("\n]\n");
 
-			writer.flush();
-			if (outputStream != System.out) {
-				writer.close();
-			}
+		writer.flush();
+		if (outputStream != System.out) {
+			writer.close();
 		}
 	}
 
@@ -7,8 +7,9 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
 
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
@@ -18,10 +19,13 @@ import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
+import org.petapico.npop.io.GraphSelectiveRdfHandler.StatementHandler;
+import org.petapico.npop.io.NanopubGraph;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.io.ReusableStatement;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -54,6 +58,15 @@ public class Extract {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
+	@com.beust.jcommander.Parameter(names = "--stream", description = "Write triples in input order as they are parsed, without building nanopub objects or removing duplicates (reads files sequentially)")
+	private boolean stream = false;
+
 	@com.beust.jcommander.Parameter(names = "--out-format", description = "Format of the output nanopubs: trig, nq, trix, trig.gz, ...")
 	private String outFormat;
 
@@ -75,54 +88,72 @@ public class Extract {
 		}
 	}
 
-	private RDFFormat rdfInFormat, rdfOutFormat;
+	private RDFFormat rdfOutFormat;
 	private OutputStream outputStream = System.out;
 	private RDFWriter writer;
 
 	private void run() throws IOException, RDFParseException, RDFHandlerException,
 			MalformedNanopubException, TrustyUriException {
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
-			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
+		if (outputFile == null) {
+			if (outFormat == null) {
+				outFormat = "trig";
 			}
-			if (outputFile == null) {
-				if (outFormat == null) {
-					outFormat = "trig";
-				}
-				rdfOutFormat = Rio.getParserFormatForFileName("file." + outFormat).orElse(null);
+			rdfOutFormat = Rio.getParserFormatForFileName("file." + outFormat).orElse(null);
+		} else {
+			rdfOutFormat = Rio.getParserFormatForFileName(outputFile.getName()).orElse(null);
+			if (outputFile.getName().endsWith(".gz")) {
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
-				rdfOutFormat = Rio.getParserFormatForFileName(outputFile.getName()).orElse(null);
-				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
-				} else {
-					outputStream = new FileOutputStream(outputFile);
-				}
+				outputStream = new FileOutputStream(outputFile);
 			}
+		}
 
-			writer = Rio.createWriter(rdfOutFormat, new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
-			writer.startRDF();
-
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		writer = Rio.createWriter(rdfOutFormat, new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
+		writer.startRDF();
+
+		Set<NanopubGraph> graphs = EnumSet.noneOf(NanopubGraph.class);
+		if (extractAssertion) graphs.add(NanopubGraph.ASSERTION);
+		if (extractProvenance) graphs.add(NanopubGraph.PROVENANCE);
+		if (extractPubinfo) graphs.add(NanopubGraph.PUBINFO);
+		if (extractHead) graphs.add(NanopubGraph.HEAD);
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder)
+				.setGraphs(graphs);
+		if (stream) {
+			// the TriG and N-Quads writers do not keep statements, so one statement object can be reused
+			final boolean reuse = dropGraphs && (rdfOutFormat == RDFFormat.TRIG || rdfOutFormat == RDFFormat.NQUADS ||
+					rdfOutFormat == RDFFormat.NTRIPLES);
+			final ReusableStatement triple = new ReusableStatement();
+			input.processStatements(graphs, new StatementHandler() {
 
 				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
+				public void handleStatement(NanopubGraph graph, Statement st) throws RDFHandlerException {
+					if (reuse) {
+						writer.handleStatement(triple.set(st));
+					} else {
+						outputStatement(st);
 					}
 				}
 
+				@Override
+				public void endNanopub() {}
+
 			});
+		} else {
+			input.process(new NanopubInput.Handler() {
 
-			writer.endRDF();
+				@Override
+				public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException {
+					process(np);
+				}
 
-			outputStream.flush();
-			if (outputStream != System.out) {
-				outputStream.close();
-			}
+			});
+		}
+
+		writer.endRDF();
+
+		outputStream.flush();
+		if (outputStream != System.out) {
+			outputStream.close();
 		}
 	}
 
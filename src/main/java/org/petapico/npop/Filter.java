@@ -2,18 +2,13 @@ package org.petapico.npop;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
@@ -25,11 +20,15 @@ import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
 import org.nanopub.NanopubUtils;
+import org.petapico.npop.filter.FilterExpression;
+import org.petapico.npop.filter.TermIndex;
+import org.petapico.npop.filter.TermMatcher;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.io.ReadAheadInputStream;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -38,15 +37,22 @@ import net.trustyuri.TrustyUriException;
 
 public class Filter {
 
-	@com.beust.jcommander.Parameter(description = "input-nanopubs", required = true)
+	@com.beust.jcommander.Parameter(description = "input-nanopubs")
 	private List<File> inputNanopubs = new ArrayList<File>();
 
-	@com.beust.jcommander.Parameter(names = "-f", description = "Filter by URI or literal")
+	@com.beust.jcommander.Parameter(names = "-f", description = "Filter by URI or literal; 'abc*' matches prefixes, '*abc*' substrings and '/abc/' regular expressions, " +
+			"and a leading '=' makes a term exact (e.g. '=/abc/' or '==abc')")
 	private String filter = null;
 
-	@com.beust.jcommander.Parameter(names = "-F", description = "Filter by URI or literal read from file")
+	@com.beust.jcommander.Parameter(names = "-F", description = "Filter by URIs or literals read from file (one per line, with the same patterns and '=' escape as -f)")
 	private File filterFile = null;
 
+	@com.beust.jcommander.Parameter(names = "--term-index", description = "Term index file for large -F term lists: built from -F if missing or older than the -F file, otherwise used instead of -F")
+	private File termIndexFile = null;
+
+	@com.beust.jcommander.Parameter(names = "-e", description = "Filter expression, e.g. 'assertion.pred = URI AND NOT pubinfo.obj ^= PREFIX'")
+	private String expression = null;
+
 	@com.beust.jcommander.Parameter(names = "--split", description = "Treat blanks in filter string as OR connectives")
 	private boolean splitFilter = false;
 
@@ -62,6 +68,12 @@ public class Filter {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
 	@com.beust.jcommander.Parameter(names = "--out-format", description = "Format of the output nanopubs: trig, nq, trix, trig.gz, ...")
 	private String outFormat;
 
@@ -76,6 +88,7 @@ public class Filter {
 			System.exit(1);
 		}
 		try {
+			obj.init();
 			obj.run();
 		} catch (Exception ex) {
 			ex.printStackTrace();
@@ -83,24 +96,53 @@ public class Filter {
 		}
 	}
 
-	private RDFFormat rdfInFormat, rdfOutFormat;
+	public static Filter getInstance(String args) throws ParameterException, IOException {
+		NanopubImpl.ensureLoaded();
+		if (args == null) args = "";
+		Filter obj = new Filter();
+		JCommander jc = new JCommander(obj);
+		jc.parse(args.trim().split(" "));
+		obj.init();
+		return obj;
+	}
+
+	private RDFFormat rdfOutFormat;
 	private OutputStream outputStream = System.out;
-	private Map<String,Boolean> filterComponents = new HashMap<>();
+	private TermMatcher filterComponents = new TermMatcher();
+	private TermIndex termIndex;
+	private FilterExpression filterExpression;
 
-	private void run() throws IOException, RDFParseException, RDFHandlerException,
-			MalformedNanopubException, TrustyUriException {
-		if (splitFilter) {
+	private void init() throws IOException {
+		if (expression != null) {
+			filterExpression = FilterExpression.parse(expression);
+		}
+		if (filter == null) {
+			// no -f filter
+		} else if (splitFilter) {
 			for (String s : filter.split(" ")) {
-				filterComponents.put(s, true);
+				filterComponents.add(s);
 			}
 		} else {
-			filterComponents.put(filter, true);
+			filterComponents.add(filter);
 		}
-		if (filterFile != null) {
+		TermIndex.Builder indexBuilder = null;
+		if (termIndexFile != null) {
+			if (termIndexFile.exists() && (filterFile == null || filterFile.lastModified() <= termIndexFile.lastModified())) {
+				termIndex = TermIndex.load(termIndexFile);
+			} else if (filterFile == null) {
+				throw new ParameterException("Term index file not found, and no filter file (-F) given to build it");
+			} else {
+				if (termIndexFile.exists()) {
+					System.err.println("Rebuilding term index " + termIndexFile + ", as it is older than " + filterFile);
+				}
+				indexBuilder = new TermIndex.Builder();
+			}
+		}
+		if (filterFile != null && termIndex == null) {
 			BufferedReader br = null;
 			try {
 				if (filterFile.getName().endsWith(".gz")) {
-					br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(filterFile))));
+					br = new BufferedReader(new InputStreamReader(ReadAheadInputStream.openGzip(filterFile)));
 				} else {
 					br = new BufferedReader(new FileReader(filterFile));
 				}
@@ -108,53 +150,65 @@ public class Filter {
 			    while ((line = br.readLine()) != null) {
 			    	line = line.trim();
 			    	if (line.isEmpty()) continue;
-			    	filterComponents.put(line, true);
+			    	if (indexBuilder != null) {
+			    		indexBuilder.add(line);
+			    	} else {
+			    		filterComponents.add(line);
+			    	}
 			    }
 			} finally {
 				if (br != null) br.close();
 			}
 		}
-		if (filter == null && filterFile == null) {
+		if (indexBuilder != null) {
+			indexBuilder.write(termIndexFile);
+			indexBuilder = null;
+			termIndex = TermIndex.load(termIndexFile);
+		}
+		if (termIndex != null) {
+			for (String t : termIndex.getPatternTerms()) {
+				filterComponents.add(t);
+			}
+		}
+		if (filter == null && filterFile == null && termIndex == null) {
 			filterComponents = null;
+		} else {
+			filterComponents.compile();
 		}
+	}
 
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
-			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
+	private void run() throws IOException, RDFParseException, RDFHandlerException,
+			MalformedNanopubException, TrustyUriException {
+		if (inputNanopubs == null || inputNanopubs.isEmpty()) {
+			throw new ParameterException("No input files given");
+		}
+		if (outputFile == null) {
+			if (outFormat == null) {
+				outFormat = "trig";
 			}
-			if (outputFile == null) {
-				if (outFormat == null) {
-					outFormat = "trig";
-				}
-				rdfOutFormat = Rio.getParserFormatForFileName("file." + outFormat).orElse(null);
+			rdfOutFormat = Rio.getParserFormatForFileName("file." + outFormat).orElse(null);
+		} else {
+			rdfOutFormat = Rio.getParserFormatForFileName(outputFile.getName()).orElse(null);
+			if (outputFile.getName().endsWith(".gz")) {
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
-				rdfOutFormat = Rio.getParserFormatForFileName(outputFile.getName()).orElse(null);
-				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
-				} else {
-					outputStream = new FileOutputStream(outputFile);
-				}
+				outputStream = new FileOutputStream(outputFile);
 			}
+		}
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder);
+		input.process(new NanopubInput.Handler() {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException {
+				process(np);
+			}
 
-			});
+		});
 
-			outputStream.flush();
-			if (outputStream != System.out) {
-				outputStream.close();
-			}
+		outputStream.flush();
+		if (outputStream != System.out) {
+			outputStream.close();
 		}
 	}
 
@@ -164,31 +218,39 @@ public class Filter {
 		}
 	}
 
-	private boolean matchesFilter(Nanopub np) {
+	public boolean matchesFilter(Nanopub np) {
 		if (noExamples && isExampleNanopub(np)) {
 			return false;
 		}
 		if (onlyExamples && !isExampleNanopub(np)) {
 			return false;
 		}
+		if (filterExpression != null && !filterExpression.matches(np)) {
+			return false;
+		}
 		if (filterComponents == null) return true;
 		for (Statement st : NanopubUtils.getStatements(np)) {
-			if (filterComponents.containsKey(st.getSubject().stringValue())) {
+			if (matchesTerm(st.getSubject().stringValue())) {
 				return true;
 			}
-			if (filterComponents.containsKey(st.getPredicate().stringValue())) {
+			if (matchesTerm(st.getPredicate().stringValue())) {
 				return true;
 			}
-			if (filterComponents.containsKey(st.getObject().stringValue())) {
+			if (matchesTerm(st.getObject().stringValue())) {
 				return true;
 			}
-			if (filterComponents.containsKey(st.getContext().stringValue())) {
+			if (matchesTerm(st.getContext().stringValue())) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	private boolean matchesTerm(String s) {
+		if (filterComponents.matches(s)) return true;
+		return termIndex != null && termIndex.contains(s);
+	}
+
 
 	public static IRI exampleNanopubType = SimpleValueFactory.getInstance().createIRI("http://purl.org/nanopub/x/ExampleNanopub");
 
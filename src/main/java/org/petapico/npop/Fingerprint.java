@@ -8,9 +8,11 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.Properties;
+import java.util.TreeMap;
 
 import net.trustyuri.TrustyUriException;
+import net.trustyuri.TrustyUriUtils;
 
 import org.nanopub.MalformedNanopubException;
 import org.nanopub.MultiNanopubRdfHandler;
@@ -23,6 +25,12 @@ import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.Rio;
 import org.petapico.npop.fingerprint.DefaultFingerprints;
 import org.petapico.npop.fingerprint.FingerprintHandler;
+import org.petapico.npop.fingerprint.FingerprintMemo;
+import org.petapico.npop.fingerprint.ProfileFingerprints;
+import org.petapico.npop.io.NanopubGraph;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.util.OrderedWorkerPool;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -50,6 +58,20 @@ public class Fingerprint {
 	@com.beust.jcommander.Parameter(names = "-h", description = "Fingerprint handler class")
 	private String handlerClass;
 
+	@com.beust.jcommander.Parameter(names = "-p", description = "Fingerprint profile: name of a built-in profile " +
+			"(default, disgenet, wikipathways) or profile file (instead of a handler class)")
+	private String profile;
+
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of threads for fingerprint calculation (output order is preserved)")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--memo", description = "Memo file of fingerprints computed earlier, looked up by artifact code " +
+			"before calculating a fingerprint (created if it does not exist)")
+	private File memoFile;
+
+	@com.beust.jcommander.Parameter(names = "--memo-size", description = "Maximum number of entries of the memo file (least recently used ones are evicted)")
+	private long memoSize = 10000000;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Fingerprint obj = new Fingerprint();
@@ -83,9 +105,25 @@ public class Fingerprint {
 	private OutputStream outputStream = System.out;
 	private BufferedWriter writer;
 	private FingerprintHandler fingerprintHandler;
+	private String handlerKey;
+	private FingerprintMemo memo;
 
 	private void init() {
-		if (handlerClass != null && !handlerClass.isEmpty()) {
+		if (profile != null) {
+			try {
+				Properties profileProperties = ProfileFingerprints.loadProfile(profile);
+				ProfileFingerprints pf = new ProfileFingerprints(profileProperties);
+				if (ignoreHead) pf.excludeGraph(NanopubGraph.HEAD);
+				if (ignoreProv) pf.excludeGraph(NanopubGraph.PROVENANCE);
+				if (ignorePubinfo) pf.excludeGraph(NanopubGraph.PUBINFO);
+				fingerprintHandler = pf;
+				handlerKey = new TreeMap<>(profileProperties).toString();
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			} catch (IllegalArgumentException ex) {
+				throw new ParameterException(ex.getMessage());
+			}
+		} else if (handlerClass != null && !handlerClass.isEmpty()) {
 			String detectorClassName = handlerClass;
 			if (!handlerClass.contains(".")) {
 				detectorClassName = "org.petapico.npop.fingerprint." + handlerClass;
@@ -98,6 +136,18 @@ public class Fingerprint {
 		} else {
 			fingerprintHandler = new DefaultFingerprints(ignoreHead, ignoreProv, ignorePubinfo);
 		}
+		if (memoFile != null) {
+			// the handler key identifies the handler settings that the fingerprints depend on
+			handlerKey = fingerprintHandler.getClass().getName() + " " + ignoreHead + " " + ignoreProv + " " + ignorePubinfo +
+					(handlerKey == null ? "" : " " + handlerKey);
+			try {
+				memo = new FingerprintMemo(memoFile, handlerKey, memoSize);
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			} catch (IllegalArgumentException ex) {
+				throw new ParameterException(ex.getMessage());
+			}
+		}
 	}
 
 	public void run() throws IOException, RDFParseException, RDFHandlerException,
@@ -113,7 +163,7 @@ public class Fingerprint {
 			}
 			if (outputFile != null) {
 				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
+					outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 				} else {
 					outputStream = new FileOutputStream(outputFile);
 				}
@@ -121,30 +171,80 @@ public class Fingerprint {
 
 			writer = new BufferedWriter(new OutputStreamWriter(outputStream));
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+			if (threads > 1) {
+				final OrderedWorkerPool<Nanopub,String> pool = new OrderedWorkerPool<Nanopub,String>(threads) {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						writer.write(np.getUri() + " " + getFingerprint(np) + "\n");
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
+					@Override
+					protected String compute(Nanopub np) throws Exception {
+						return getFingerprint(np);
 					}
-				}
 
-			});
+					@Override
+					protected void handleResult(Nanopub np, String fingerprint) throws Exception {
+						writer.write(np.getUri() + " " + fingerprint + "\n");
+					}
+
+				};
+
+				NanopubInput.readFile(rdfInFormat, inputFile, new NanopubHandler() {
+
+					@Override
+					public void handleNanopub(Nanopub np) {
+						pool.submit(np);
+					}
+
+				});
+
+				pool.finish();
+			} else {
+				NanopubInput.readFile(rdfInFormat, inputFile, new NanopubHandler() {
+
+					@Override
+					public void handleNanopub(Nanopub np) {
+						try {
+							writer.write(np.getUri() + " " + getFingerprint(np) + "\n");
+						} catch (RDFHandlerException ex) {
+							throw new RuntimeException(ex);
+						} catch (IOException ex) {
+							throw new RuntimeException(ex);
+						}
+					}
+
+				});
+			}
 
 			writer.flush();
 			if (outputStream != System.out) {
 				writer.close();
 			}
 		}
+		close();
 	}
 
 	public String getFingerprint(Nanopub np) throws RDFHandlerException, IOException {
-		return fingerprintHandler.getFingerprint(np);
+		if (memo == null) {
+			return fingerprintHandler.getFingerprint(np);
+		}
+		String artifactCode = TrustyUriUtils.getArtifactCode(np.getUri().toString());
+		if (artifactCode == null) {
+			return fingerprintHandler.getFingerprint(np);
+		}
+		String fingerprint = memo.get(artifactCode);
+		if (fingerprint == null) {
+			fingerprint = fingerprintHandler.getFingerprint(np);
+			memo.put(artifactCode, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Writes the new entries of the memo file, if there is one.
+	 */
+	public void close() throws IOException {
+		if (memo != null) {
+			memo.close();
+			memo = null;
+		}
 	}
 
 }
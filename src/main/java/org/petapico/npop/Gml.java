@@ -6,23 +6,30 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
-import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
-import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
+import org.petapico.npop.io.BinaryGraphWriter;
+import org.petapico.npop.io.GraphSelectiveRdfHandler;
+import org.petapico.npop.io.NanopubGraph;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.util.OrderedWorkerPool;
+import org.petapico.npop.util.StripedTermDictionary;
+import org.petapico.npop.util.TermDictionary;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -40,6 +47,20 @@ public class Gml {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
+	@com.beust.jcommander.Parameter(names = "--out-format", description = "Output format: gml, edges (binary edge list) " +
+			"or csr (binary compressed sparse row); the binary formats write several files with -o as base name")
+	private String outFormat = "gml";
+
+	@com.beust.jcommander.Parameter(names = "--fast", description = "Process the input files in parallel (see --threads) " +
+			"and write the edges as they are found, followed by all nodes at the end")
+	private boolean fast = false;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Gml obj = new Gml();
@@ -58,88 +79,256 @@ public class Gml {
 		}
 	}
 
-	private RDFFormat rdfInFormat;
 	private OutputStream outputStream = System.out;
-	private Map<String,Integer> nodes = new HashMap<>();
+	private TermDictionary nodes = new TermDictionary();
 	private BufferedWriter writer;
-	private int nodeCounter = 0;
 
 	private void run() throws IOException, RDFParseException, RDFHandlerException,
 			MalformedNanopubException, TrustyUriException {
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
+		if (outFormat.equals("edges") || outFormat.equals("csr")) {
+			if (outputFile == null) throw new ParameterException("Output file (-o) needed for binary output");
+			runBinary();
+			return;
+		} else if (!outFormat.equals("gml")) {
+			throw new ParameterException("Unknown output format: " + outFormat);
+		}
+		if (outputFile != null) {
+			if (outputFile.getName().endsWith(".gz")) {
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
-			if (outputFile != null) {
-				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
-				} else {
-					outputStream = new FileOutputStream(outputFile);
-				}
+				outputStream = new FileOutputStream(outputFile);
 			}
+		}
 
-			writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-			writer.write("graph [\n");
+		if (fast) {
+			runFast();
+			return;
+		}
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+		writer.write("graph [\n");
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder)
+				.setGraphs(EnumSet.of(NanopubGraph.ASSERTION));
+		input.process(new NanopubInput.Handler() {
 
-			});
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException, IOException {
+				process(np);
+			}
 
-			writer.write("]\n");
+		});
 
-			writer.flush();
-			if (outputStream != System.out) {
-				writer.close();
-			}
+		writer.write("]\n");
+
+		writer.flush();
+		if (outputStream != System.out) {
+			writer.close();
 		}
 	}
 
 	private void process(Nanopub np) throws RDFHandlerException, IOException {
 		for (Statement st : np.getAssertion()) {
 			if (!(st.getObject() instanceof IRI)) continue;
-			String s = st.getSubject().stringValue();
-			String p = st.getPredicate().stringValue();
-			String o = st.getObject().stringValue();
-			int si, oi;
-			if (nodes.containsKey(s)) {
-				si = nodes.get(s);
-			} else {
-				si = nodeCounter++;
-				nodes.put(s, si);
-				writer.write("node [\n");
-				writer.write("id N" + si + "N\n");
-				writer.write("label \"" + s + "\"\n");
-				writer.write("]\n");
-			}
-			if (nodes.containsKey(o)) {
-				oi = nodes.get(o);
-			} else {
-				oi = nodeCounter++;
-				nodes.put(o, oi);
-				writer.write("node [\n");
-				writer.write("id N" + oi + "N\n");
-				writer.write("label \"" + o + "\"\n");
-				writer.write("]\n");
-			}
+			int si = getNode(st.getSubject());
+			int oi = getNode(st.getObject());
 			writer.write("edge [\n");
 			writer.write("source N" + si + "N\n");
 			writer.write("target N" + oi + "N\n");
-			writer.write("label \"" + p + "\"\n");
+			writer.write("label \"" + st.getPredicate().stringValue() + "\"\n");
 			writer.write("]\n");
 		}
 	}
 
+	private int getNode(Value v) throws IOException {
+		int nodeCount = nodes.size();
+		int i = nodes.add(v);
+		if (i == nodeCount) {
+			writer.write("node [\n");
+			writer.write("id N" + i + "N\n");
+			writer.write("label \"" + v.stringValue() + "\"\n");
+			writer.write("]\n");
+		}
+		return i;
+	}
+
+	private void runBinary() throws IOException, RDFParseException, RDFHandlerException, MalformedNanopubException {
+		final BinaryGraphWriter graphWriter = new BinaryGraphWriter(outputFile, outFormat.equals("csr"));
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder)
+				.setGraphs(EnumSet.of(NanopubGraph.ASSERTION));
+		input.process(new NanopubInput.Handler() {
+
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws IOException {
+				for (Statement st : np.getAssertion()) {
+					if (!(st.getObject() instanceof IRI)) continue;
+					graphWriter.addEdge(st.getSubject(), st.getPredicate(), st.getObject());
+				}
+			}
+
+		});
+		graphWriter.close();
+		System.err.println(graphWriter.getEdgeCount() + " edges, " + graphWriter.getNodeCount() + " nodes");
+	}
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private StripedTermDictionary sharedNodes;
+
+	private void runFast() throws IOException {
+		int t = Math.max(1, threads);
+		sharedNodes = new StripedTermDictionary(t * 16);
+		outputStream.write(toBytes("graph [\n"));
+		final NanopubInput input = new NanopubInput(inputNanopubs, inFormat);
+		final long[] edgeCount = new long[1];
+		OrderedWorkerPool<File,Long> pool = new OrderedWorkerPool<File,Long>(t, t) {
+
+			@Override
+			protected Long compute(File inputFile) throws Exception {
+				EdgeWriter w = new EdgeWriter();
+				GraphSelectiveRdfHandler.process(input.getFormat(inputFile), NanopubInput.open(inputFile),
+						EnumSet.of(NanopubGraph.ASSERTION), w);
+				w.flush();
+				return w.edgeCount;
+			}
+
+			@Override
+			protected void handleResult(File inputFile, Long edges) {
+				edgeCount[0] += edges;
+			}
+
+		};
+		for (File f : inputNanopubs) {
+			pool.submit(f);
+		}
+		pool.finish();
+
+		OutputBuffer buffer = new OutputBuffer(BUFFER_SIZE);
+		int stripeCount = sharedNodes.getStripeCount();
+		for (int s = 0; s < stripeCount; s++) {
+			int n = sharedNodes.getStripeSize(s);
+			for (int i = 0; i < n; i++) {
+				int id = i * stripeCount + s;
+				buffer.put(NODE_START).putInt(id).put(NODE_LABEL).put(toBytes(sharedNodes.getTerm(id).stringValue())).put(END);
+				if (buffer.length > BUFFER_SIZE - 4096) buffer.writeTo(outputStream);
+			}
+		}
+		buffer.put(toBytes("]\n"));
+		buffer.writeTo(outputStream);
+		outputStream.flush();
+		if (outputStream != System.out) {
+			outputStream.close();
+		}
+		System.err.println(edgeCount[0] + " edges, " + sharedNodes.size() + " nodes");
+	}
+
+	private static final byte[] EDGE_SOURCE = toBytes("edge [\nsource N");
+	private static final byte[] EDGE_TARGET = toBytes("N\ntarget N");
+	private static final byte[] EDGE_LABEL = toBytes("N\nlabel \"");
+	private static final byte[] NODE_START = toBytes("node [\nid N");
+	private static final byte[] NODE_LABEL = toBytes("N\nlabel \"");
+	private static final byte[] END = toBytes("\"\n]\n");
+
+	/**
+	 * Encodes the edges of one input file into a local buffer, which is appended to the output
+	 * whenever it is full. Predicate labels are encoded only once per file. Repeated statements
+	 * within a nanopub give only one edge, as in the default mode.
+	 */
+	private class EdgeWriter implements GraphSelectiveRdfHandler.StatementHandler {
+
+		private OutputBuffer buffer = new OutputBuffer(BUFFER_SIZE);
+		private TermDictionary predicates = new TermDictionary();
+		private List<byte[]> predicateLabels = new ArrayList<>();
+		private Set<Statement> nanopubEdges = new HashSet<>();
+		private long edgeCount = 0;
+
+		@Override
+		public void handleStatement(NanopubGraph graph, Statement st) throws RDFHandlerException {
+			if (!(st.getObject() instanceof IRI)) return;
+			if (!nanopubEdges.add(st)) return;
+			int si = sharedNodes.add(st.getSubject());
+			int oi = sharedNodes.add(st.getObject());
+			int pi = predicates.add(st.getPredicate());
+			if (pi == predicateLabels.size()) predicateLabels.add(toBytes(st.getPredicate().stringValue()));
+			buffer.put(EDGE_SOURCE).putInt(si).put(EDGE_TARGET).putInt(oi).put(EDGE_LABEL).put(predicateLabels.get(pi)).put(END);
+			edgeCount++;
+			if (buffer.length > BUFFER_SIZE - 4096) {
+				try {
+					flush();
+				} catch (IOException ex) {
+					throw new RDFHandlerException(ex);
+				}
+			}
+		}
+
+		@Override
+		public void endNanopub() {
+			// a large set is not kept, as clearing takes time proportional to its capacity
+			if (nanopubEdges.size() > 1024) {
+				nanopubEdges = new HashSet<>();
+			} else {
+				nanopubEdges.clear();
+			}
+		}
+
+		void flush() throws IOException {
+			synchronized (outputStream) {
+				buffer.writeTo(outputStream);
+			}
+		}
+
+	}
+
+
+	/**
+	 * Growable byte array with methods to append bytes and decimal numbers without creating
+	 * strings.
+	 */
+	private static class OutputBuffer {
+
+		private byte[] data;
+		private int length = 0;
+
+		OutputBuffer(int size) {
+			data = new byte[size];
+		}
+
+		OutputBuffer put(byte[] b) {
+			ensureCapacity(b.length);
+			System.arraycopy(b, 0, data, length, b.length);
+			length += b.length;
+			return this;
+		}
+
+		OutputBuffer putInt(int i) {
+			ensureCapacity(11);
+			if (i < 0) {
+				data[length++] = '-';
+				i = -i;
+			}
+			int digits = 1;
+			for (int x = i; x >= 10; x /= 10) digits++;
+			for (int p = length + digits - 1; p >= length; p--) {
+				data[p] = (byte) ('0' + i % 10);
+				i /= 10;
+			}
+			length += digits;
+			return this;
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(data, 0, length);
+			length = 0;
+		}
+
+		private void ensureCapacity(int n) {
+			if (length + n > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+		}
+
+	}
+
+	private static byte[] toBytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
 }
@@ -0,0 +1,53 @@
+package org.petapico.npop;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nanopub.NanopubImpl;
+import org.petapico.npop.fingerprint.FingerprintIndex;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+public class IndexFingerprints {
+
+	@com.beust.jcommander.Parameter(description = "input-cache-file (as written by 'reuse -c')", required = true)
+	private List<File> inputCacheFiles = new ArrayList<File>();
+
+	@com.beust.jcommander.Parameter(names = "-o", description = "Output index file (.fpi), which can afterwards be used for 'reuse -x'", required = true)
+	private File outputFile;
+
+	public static void main(String[] args) {
+		NanopubImpl.ensureLoaded();
+		IndexFingerprints obj = new IndexFingerprints();
+		JCommander jc = new JCommander(obj);
+		try {
+			jc.parse(args);
+		} catch (ParameterException ex) {
+			jc.usage();
+			System.exit(1);
+		}
+		try {
+			obj.run();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private void run() throws IOException {
+		if (inputCacheFiles.size() != 1) {
+			throw new ParameterException("Exactly one input cache file expected");
+		}
+		if (!FingerprintIndex.isIndexFile(outputFile)) {
+			throw new ParameterException("Output file name needs to end with " + FingerprintIndex.FILE_EXTENSION);
+		}
+		FingerprintIndex.build(inputCacheFiles.get(0), outputFile);
+		FingerprintIndex index = new FingerprintIndex(outputFile);
+		System.err.println("Indexed entries (unique): " + index.getEntryCount() + " (" + index.size() + ")");
+		index.close();
+	}
+
+}
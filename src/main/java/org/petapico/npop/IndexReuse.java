@@ -2,7 +2,6 @@ package org.petapico.npop;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -12,8 +11,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
@@ -31,6 +28,10 @@ import org.nanopub.extra.index.IndexUtils;
 import org.nanopub.extra.index.NanopubIndex;
 import org.nanopub.extra.index.NanopubIndexCreator;
 import org.nanopub.extra.index.SimpleIndexCreator;
+import org.petapico.npop.fingerprint.FingerprintCache;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.io.ReadAheadInputStream;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -39,7 +40,7 @@ import net.trustyuri.TrustyUriException;
 
 public class IndexReuse {
 
-	@com.beust.jcommander.Parameter(description = "input-nanopub-cache", required = true)
+	@com.beust.jcommander.Parameter(description = "input-nanopub-cache (text or .fpc binary cache files)", required = true)
 	private List<File> inputNanopubCache = new ArrayList<File>();
 
 	@com.beust.jcommander.Parameter(names = "-x", description = "Index nanopubs to be reused (need to be sorted; no subindex supported)")
@@ -121,37 +122,32 @@ public class IndexReuse {
 			} else {
 				rdfOutFormat = Rio.getParserFormatForFileName(outputFile.getName()).orElse(null);
 				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(outputFile)));
+					outputStream = new PrintStream(new ParallelGzipOutputStream(new FileOutputStream(outputFile)));
 				} else {
 					outputStream = new PrintStream(new FileOutputStream(outputFile));
 				}
 			}
 			if (allOutputFile != null) {
 				if (allOutputFile.getName().endsWith(".gz")) {
-					allOutputStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(allOutputFile)));
+					allOutputStream = new PrintStream(new ParallelGzipOutputStream(new FileOutputStream(allOutputFile)));
 				} else {
 					allOutputStream = new PrintStream(new FileOutputStream(allOutputFile));
 				}
 			}
 
-			BufferedReader br = null;
-			try {
-				if (inputFile.getName().endsWith(".gz")) {
-					br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(inputFile))));
-				} else {
-					br = new BufferedReader(new FileReader(inputFile));
+			if (FingerprintCache.isCacheFile(inputFile)) {
+				FingerprintCache.Reader reader = new FingerprintCache.Reader(inputFile);
+				try {
+					while (reader.next()) {
+						String uri = reader.getUri();
+						contentNanopubList.add(uri);
+						contentNanopubMap.put(uri, true);
+					}
+				} finally {
+					reader.close();
 				}
-			    String line;
-			    while ((line = br.readLine()) != null) {
-			    	line = line.trim();
-			    	if (line.isEmpty()) continue;
-			    	String[] columns = line.split(" ");
-			    	String uri = columns[0];
-					contentNanopubList.add(uri);
-					contentNanopubMap.put(uri, true);
-			    }
-			} finally {
-				if (br != null) br.close();
+			} else {
+				readTextCache(inputFile);
 			}
 
 			if (reuseIndexFile != null) {
@@ -160,7 +156,7 @@ public class IndexReuse {
 				} else {
 					rdfReuseFormat = Rio.getParserFormatForFileName(reuseIndexFile.toString()).orElse(null);
 				}
-				MultiNanopubRdfHandler.process(rdfReuseFormat, reuseIndexFile, new NanopubHandler() {
+				NanopubInput.readFile(rdfReuseFormat, reuseIndexFile, new NanopubHandler() {
 		
 					@Override
 					public void handleNanopub(Nanopub np) {
@@ -210,6 +206,28 @@ public class IndexReuse {
 		}
 	}
 
+	private void readTextCache(File inputFile) throws IOException {
+		BufferedReader br = null;
+		try {
+			if (inputFile.getName().endsWith(".gz")) {
+				br = new BufferedReader(new InputStreamReader(ReadAheadInputStream.openGzip(inputFile)));
+			} else {
+				br = new BufferedReader(new FileReader(inputFile));
+			}
+		    String line;
+		    while ((line = br.readLine()) != null) {
+		    	line = line.trim();
+		    	if (line.isEmpty()) continue;
+		    	String[] columns = line.split(" ");
+		    	String uri = columns[0];
+				contentNanopubList.add(uri);
+				contentNanopubMap.put(uri, true);
+		    }
+		} finally {
+			if (br != null) br.close();
+		}
+	}
+
 	private void processIndexNanopub(Nanopub np) throws IOException, RDFHandlerException, MalformedNanopubException {
 		NanopubIndex npi = IndexUtils.castToIndex(np);
 		lastIndexNp = npi;
@@ -8,22 +8,22 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPOutputStream;
+import java.util.regex.Pattern;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
-import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
-import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -59,6 +59,12 @@ public class Namespaces {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Namespaces obj = new Namespaces();
@@ -88,7 +94,6 @@ public class Namespaces {
 		return obj;
 	}
 
-	private RDFFormat rdfInFormat;
 	private BufferedWriter headWriter, assertionWriter, provWriter, pubinfoWriter;
 
 	private void init() {
@@ -108,29 +113,17 @@ public class Namespaces {
 		assertionWriter = makeWriter(assertionOutputFile);
 		provWriter = makeWriter(provOutputFile);
 		pubinfoWriter = makeWriter(pubinfoOutputFile);
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
-			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder);
+		input.process(new NanopubInput.Handler() {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException, IOException {
+				process(np);
+			}
 
-			});
+		});
 
-		}
 		closeWriter(headWriter);
 		closeWriter(assertionWriter);
 		closeWriter(provWriter);
@@ -146,32 +139,56 @@ public class Namespaces {
 
 	private void writeNamespaces(Set<Statement> statements, BufferedWriter w) throws IOException {
 		if (w == null) return;
-		Set<String> namespaces = new HashSet<>();
+		// a large set is not kept, as clearing takes time proportional to its capacity
+		if (writtenNamespaces.size() > 1024) {
+			writtenNamespaces = new HashSet<>();
+		} else {
+			writtenNamespaces.clear();
+		}
 		for (Statement st : statements) {
 			if (includeSubject && st.getSubject() instanceof IRI) {
-				namespaces.add(getNamespace((IRI) st.getSubject()));
+				writeNamespace((IRI) st.getSubject(), w);
 			}
 			if (includePredicate) {
-				namespaces.add(getNamespace(st.getPredicate()));
+				writeNamespace(st.getPredicate(), w);
 			}
 			if (includeObject && st.getObject() instanceof IRI) {
-				namespaces.add(getNamespace((IRI) st.getObject()));
+				writeNamespace((IRI) st.getObject(), w);
 			}
 		}
-		for (String n : namespaces) {
-			w.write(n + "\n");
-		}
 	}
 
-	private String getNamespace(IRI uri) {
-		return uri.toString().replaceFirst("[A-Za-z0-9_.-]*.$", "");
+	private static final Pattern localNamePattern = Pattern.compile("[A-Za-z0-9_.-]*.$");
+
+	// Maximum number of IRIs whose namespace is cached
+	private static final int maxCachedIris = 1000000;
+
+	private Map<String,String> namespaceCache = new HashMap<>();
+	// namespaces written for the current graph
+	private Set<String> writtenNamespaces = new HashSet<>();
+
+	private void writeNamespace(IRI iri, BufferedWriter w) throws IOException {
+		String ns = getNamespace(iri);
+		if (writtenNamespaces.add(ns)) w.write(ns + "\n");
+	}
+
+	private String getNamespace(IRI iri) {
+		String s = iri.stringValue();
+		String ns = namespaceCache.get(s);
+		if (ns != null) return ns;
+		if (namespaceCache.size() >= maxCachedIris) {
+			namespaceCache = new HashMap<>();
+		}
+		ns = localNamePattern.matcher(s).replaceFirst("");
+		namespaceCache.put(s, ns);
+		return ns;
 	}
 
 	private BufferedWriter makeWriter(File f) throws IOException {
 		if (f == null) return null;
 		OutputStream stream = null;
 		if (f.getName().endsWith(".gz")) {
-			stream = new GZIPOutputStream(new FileOutputStream(f));
+			stream = new ParallelGzipOutputStream(new FileOutputStream(f));
 		} else {
 			stream = new FileOutputStream(f);
 		}
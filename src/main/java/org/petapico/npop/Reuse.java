@@ -1,19 +1,18 @@
 package org.petapico.npop;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
@@ -30,6 +29,17 @@ import org.nanopub.NanopubImpl;
 import org.nanopub.NanopubRdfHandler;
 import org.nanopub.NanopubUtils;
 import org.nanopub.trusty.FixTrustyNanopub;
+import org.petapico.npop.fingerprint.FingerprintCache;
+import org.petapico.npop.fingerprint.FingerprintDigest;
+import org.petapico.npop.fingerprint.FingerprintIndex;
+import org.petapico.npop.fingerprint.FingerprintLookup;
+import org.petapico.npop.fingerprint.FingerprintTable;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.io.ReadAheadInputStream;
+import org.petapico.npop.util.DigestMap;
+import org.petapico.npop.util.OrderedWorkerPool;
+import org.petapico.npop.util.SpillStore;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -41,7 +51,7 @@ public class Reuse {
 	@com.beust.jcommander.Parameter(description = "input-nanopubs", required = true)
 	private List<File> inputNanopubs = new ArrayList<File>();
 
-	@com.beust.jcommander.Parameter(names = "-x", description = "Nanopubs to be reused (if not given, an initial dataset is created)")
+	@com.beust.jcommander.Parameter(names = "-x", description = "Nanopubs to be reused, as nanopub file, cache file or .fpi index file (if not given, an initial dataset is created)")
 	private File reuseNanopubFile;
 
 	@com.beust.jcommander.Parameter(names = "-n", description = "Output new nanopubs")
@@ -53,7 +63,7 @@ public class Reuse {
 	@com.beust.jcommander.Parameter(names = "-a", description = "Output file of all nanopublications (-x file needs to be a full nanopub file)")
 	private File allOutputFile;
 
-	@com.beust.jcommander.Parameter(names = "-c", description = "Output cache file, which can afterwards be used for argument -x or to create an index)")
+	@com.beust.jcommander.Parameter(names = "-c", description = "Output cache file, which can afterwards be used for argument -x or to create an index (binary format if ending with .fpc)")
 	private File cacheFile;
 
 	@com.beust.jcommander.Parameter(names = "-r", description = "Append line to this table file")
@@ -68,7 +78,7 @@ public class Reuse {
 	@com.beust.jcommander.Parameter(names = "--out-format", description = "Format of the output nanopubs: trig, nq, trix, trig.gz, ...")
 	private String outFormat;
 
-	@com.beust.jcommander.Parameter(names = "-f", description = "Fingerprinting options")
+	@com.beust.jcommander.Parameter(names = "-f", description = "Fingerprinting options (e.g. \"--memo fingerprints.memo\" to reuse fingerprints of earlier runs)")
 	private String fingerprintOptions;
 
 	@com.beust.jcommander.Parameter(names = "-s", description = "Add npx:supersedes backlinks for changed nanopublications")
@@ -77,6 +87,12 @@ public class Reuse {
 	@com.beust.jcommander.Parameter(names = "-t", description = "Topic options")
 	private String topicOptions;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of threads for fingerprint and topic calculation")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--spill-dir", description = "Keep the serializations of the nanopubs to be reused for -a in a temporary file in this directory instead of in memory")
+	private File spillDir;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Reuse obj = new Reuse();
@@ -103,9 +119,16 @@ public class Reuse {
 	private PrintStream outputStream = System.out;
 	private PrintStream allOutputStream;
 	private PrintStream cacheStream;
-	private Map<String,String> reusableNanopubs = new HashMap<>();
+	private FingerprintCache.Writer cacheWriter;
+	private FingerprintTable reusableTable = new FingerprintTable();
+	private FingerprintIndex reusableIndex;
+	private FingerprintLookup reusableNanopubs = reusableTable;
 	private Map<String,String> existingTopics = new HashMap<>();
+	// topic table positions of the matched topics of the index, if topics are looked up there
+	private BitSet matchedIndexTopics;
 	private Map<String,String> reuseNanopubMap = new HashMap<>();
+	private SpillStore reuseNanopubSpill;
+	private DigestMap reuseNanopubSpillRefs;
 	private int reusableCount, uniqueReusableCount, inputCount, reuseCount, inTopicDuplCount, outTopicDuplCount, topicMatchErrors, topicMatchCount;
 	private Fingerprint fingerprint;
 	private Topic topic;
@@ -146,6 +169,54 @@ public class Reuse {
 
 		if (reuseNanopubFile == null) {
 			// Initial dataset creation
+		} else if (FingerprintIndex.isIndexFile(reuseNanopubFile)) {
+			// Reuse nanopubs from memory-mapped index file
+			if (allOutputFile != null) {
+				throw new RuntimeException("-x needs to specify a full nanopub file if -a is specified");
+			}
+			reusableIndex = new FingerprintIndex(reuseNanopubFile);
+			reusableNanopubs = reusableIndex;
+			reusableCount = (int) reusableIndex.getEntryCount();
+			if (addSupersedesBacklinks) {
+				if (!reusableIndex.hasTopics()) {
+					throw new RuntimeException("Index file has no topics, which are needed for -s");
+				}
+				if (reusableIndex.hasTopicTable()) {
+					// topics are looked up in the index when needed
+					matchedIndexTopics = new BitSet();
+					inTopicDuplCount = (int) reusableIndex.getDuplicateTopicCount();
+					topicMatchErrors += inTopicDuplCount;
+				} else {
+					FingerprintIndex.EntryReader reader = reusableIndex.readEntries();
+					try {
+						while (reader.next()) {
+							recordTopic(reader.getTopic(), reader.getUri());
+						}
+					} finally {
+						reader.close();
+					}
+				}
+			}
+		} else if (FingerprintCache.isCacheFile(reuseNanopubFile)) {
+			// Reuse nanopubs from binary cache file
+			if (allOutputFile != null) {
+				throw new RuntimeException("-x needs to specify a full nanopub file if -a is specified");
+			}
+			FingerprintCache.Reader reader = new FingerprintCache.Reader(reuseNanopubFile);
+			try {
+				if (addSupersedesBacklinks && !reader.hasTopics()) {
+					throw new RuntimeException("Cache file has no topics, which are needed for -s");
+				}
+				while (reader.next()) {
+					reusableTable.put(reader.getDigest(), 0, reader.getUriBytes(), 0, reader.getUriLength());
+					reusableCount++;
+					if (addSupersedesBacklinks) {
+						recordTopic(reader.getTopic(), reader.getUri());
+					}
+				}
+			} finally {
+				reader.close();
+			}
 		} else if (reuseNanopubFile.getName().endsWith(".txt") || reuseNanopubFile.getName().endsWith(".txt.gz")) {
 			// Reuse nanopubs from cache file
 			if (allOutputFile != null) {
@@ -154,7 +225,7 @@ public class Reuse {
 			BufferedReader br = null;
 			try {
 				if (reuseNanopubFile.getName().endsWith(".gz")) {
-					br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(reuseNanopubFile))));
+					br = new BufferedReader(new InputStreamReader(ReadAheadInputStream.openGzip(reuseNanopubFile)));
 				} else {
 					br = new BufferedReader(new FileReader(reuseNanopubFile));
 				}
@@ -165,7 +236,7 @@ public class Reuse {
 			    	String[] columns = line.split(" ");
 			    	String uri = columns[0];
 			    	String fingerprint = columns[1];
-			    	reusableNanopubs.put(fingerprint, uri);
+			    	reusableTable.put(fingerprint, uri);
 					reusableCount++;
 					if (addSupersedesBacklinks) {
 						String topic = columns[2];
@@ -182,36 +253,62 @@ public class Reuse {
 			} else {
 				rdfReuseFormat = Rio.getParserFormatForFileName(reuseNanopubFile.toString()).orElse(null);
 			}
-			MultiNanopubRdfHandler.process(rdfReuseFormat, reuseNanopubFile, new NanopubHandler() {
+			if (allOutputFile != null && spillDir != null) {
+				reuseNanopubSpill = new SpillStore(spillDir);
+				reuseNanopubSpillRefs = new DigestMap();
+			}
+			if (threads > 1) {
+				final OrderedWorkerPool<Nanopub,NanopubInfo> pool = new OrderedWorkerPool<Nanopub,NanopubInfo>(threads) {
+
+					@Override
+					protected NanopubInfo compute(Nanopub np) throws Exception {
+						NanopubInfo info = getInfo(np);
+						serialize(np, info);
+						return info;
+					}
+
+					@Override
+					protected void handleResult(Nanopub np, NanopubInfo info) throws Exception {
+						recordReusable(np, info);
+					}
+
+				};
+				NanopubInput.readFile(rdfReuseFormat, reuseNanopubFile, new NanopubHandler() {
+
+					@Override
+					public void handleNanopub(Nanopub np) {
+						pool.submit(np);
+					}
+
+				});
+				pool.finish();
+			} else {
+				NanopubInput.readFile(rdfReuseFormat, reuseNanopubFile, new NanopubHandler() {
 	
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						String fp = fingerprint.getFingerprint(np);
-						String uri = np.getUri().toString();
-						reusableNanopubs.put(fp, uri);
-						reusableCount++;
-						if (addSupersedesBacklinks) {
-							recordTopic(topic.getTopic(np), uri);
+					@Override
+					public void handleNanopub(Nanopub np) {
+						try {
+							NanopubInfo info = getInfo(np);
+							serialize(np, info);
+							recordReusable(np, info);
+						} catch (IOException ex) {
+							throw new RuntimeException(ex);
+						} catch (RDFHandlerException ex) {
+							throw new RuntimeException(ex);
 						}
-						if (allOutputFile != null) {
-							reuseNanopubMap.put(fp, NanopubUtils.writeToString(np, rdfOutFormat));
-						}
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
 					}
-				}
 	
-			});
+				});
+			}
 		}
 		uniqueReusableCount = reusableNanopubs.size();
 
 		// Reuse matching nanopubs:
-		if (cacheFile != null) {
+		if (cacheFile != null && FingerprintCache.isCacheFile(cacheFile)) {
+			cacheWriter = new FingerprintCache.Writer(cacheFile, addSupersedesBacklinks);
+		} else if (cacheFile != null) {
 			if (cacheFile.getName().endsWith(".gz")) {
-				cacheStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(cacheFile)));
+				cacheStream = new PrintStream(new ParallelGzipOutputStream(new FileOutputStream(cacheFile)));
 			} else {
 				cacheStream = new PrintStream(new FileOutputStream(cacheFile));
 			}
@@ -224,31 +321,60 @@ public class Reuse {
 			}
 			if (outputFile != null) {
 				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(outputFile)));
+					outputStream = new PrintStream(new ParallelGzipOutputStream(new FileOutputStream(outputFile)));
 				} else {
 					outputStream = new PrintStream(new FileOutputStream(outputFile));
 				}
 			}
 			if (allOutputFile != null) {
 				if (allOutputFile.getName().endsWith(".gz")) {
-					allOutputStream = new PrintStream(new GZIPOutputStream(new FileOutputStream(allOutputFile)));
+					allOutputStream = new PrintStream(new ParallelGzipOutputStream(new FileOutputStream(allOutputFile)));
 				} else {
 					allOutputStream = new PrintStream(new FileOutputStream(allOutputFile));
 				}
 			}
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+			if (threads > 1) {
+				final OrderedWorkerPool<Nanopub,NanopubInfo> pool = new OrderedWorkerPool<Nanopub,NanopubInfo>(threads) {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (Exception ex) {
-						throw new RuntimeException(ex);
+					@Override
+					protected NanopubInfo compute(Nanopub np) throws Exception {
+						NanopubInfo info = getInfo(np);
+						info.reusableUri = reusableNanopubs.get(info.fingerprint);
+						return info;
+					}
+
+					@Override
+					protected void handleResult(Nanopub np, NanopubInfo info) throws Exception {
+						process(np, info);
+					}
+
+				};
+				NanopubInput.readFile(rdfInFormat, inputFile, new NanopubHandler() {
+
+					@Override
+					public void handleNanopub(Nanopub np) {
+						pool.submit(np);
+					}
+
+				});
+				pool.finish();
+			} else {
+				NanopubInput.readFile(rdfInFormat, inputFile, new NanopubHandler() {
+
+					@Override
+					public void handleNanopub(Nanopub np) {
+						try {
+							NanopubInfo info = getInfo(np);
+							info.reusableUri = reusableNanopubs.get(info.fingerprint);
+							process(np, info);
+						} catch (Exception ex) {
+							throw new RuntimeException(ex);
+						}
 					}
-				}
 
-			});
+				});
+			}
 
 			outputStream.flush();
 			if (outputStream != System.out) {
@@ -258,10 +384,6 @@ public class Reuse {
 				allOutputStream.flush();
 				allOutputStream.close();
 			}
-			if (cacheStream != null) {
-				cacheStream.flush();
-				cacheStream.close();
-			}
 
 			if (tableFile != null) {
 				PrintStream st = new PrintStream(new FileOutputStream(tableFile, true));
@@ -283,6 +405,56 @@ public class Reuse {
 				System.err.println("Total topic matching errors: " + topicMatchErrors);
 			}
 		}
+		if (cacheStream != null) {
+			cacheStream.flush();
+			cacheStream.close();
+		}
+		if (cacheWriter != null) {
+			cacheWriter.close();
+		}
+		if (reusableIndex != null) {
+			reusableIndex.close();
+		}
+		if (reuseNanopubSpill != null) {
+			reuseNanopubSpill.close();
+		}
+		fingerprint.close();
+	}
+
+	private NanopubInfo getInfo(Nanopub np) throws RDFHandlerException, IOException {
+		NanopubInfo info = new NanopubInfo();
+		info.fingerprint = fingerprint.getFingerprint(np);
+		if (addSupersedesBacklinks) {
+			info.topic = topic.getTopic(np);
+		}
+		return info;
+	}
+
+	private void serialize(Nanopub np, NanopubInfo info) throws RDFHandlerException, IOException {
+		if (allOutputFile == null) return;
+		if (reuseNanopubSpill != null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			NanopubUtils.writeToStream(np, out, rdfOutFormat);
+			info.serializedBytes = out.toByteArray();
+		} else {
+			info.serialization = NanopubUtils.writeToString(np, rdfOutFormat);
+		}
+	}
+
+	private void recordReusable(Nanopub np, NanopubInfo info) throws IOException {
+		String uri = np.getUri().toString();
+		reusableTable.put(info.fingerprint, uri);
+		reusableCount++;
+		if (addSupersedesBacklinks) {
+			recordTopic(info.topic, uri);
+		}
+		if (info.serialization != null) {
+			reuseNanopubMap.put(info.fingerprint, info.serialization);
+		}
+		if (info.serializedBytes != null) {
+			long ref = reuseNanopubSpill.append(info.serializedBytes);
+			reuseNanopubSpillRefs.put(FingerprintDigest.decode(info.fingerprint), 0, ref);
+		}
 	}
 
 	private void recordTopic(String topic, String uri) {
@@ -295,31 +467,58 @@ public class Reuse {
 		}
 	}
 
-	private void process(Nanopub np) throws IOException, RDFHandlerException, MalformedNanopubException, TrustyUriException {
-		inputCount++;
-		String fp = fingerprint.getFingerprint(np);
-		String t = null;
-		if (addSupersedesBacklinks) {
-			t = topic.getTopic(np);
+	/**
+	 * Returns the URI of the nanopub of the older dataset with the given topic, multipleNanopubs,
+	 * matchedNanopub, or null if there is no such nanopub.
+	 */
+	private String getExistingTopic(String topic) {
+		if (matchedIndexTopics != null) {
+			long pos = reusableIndex.findTopic(topic);
+			if (pos >= 0) {
+				if (matchedIndexTopics.get((int) pos)) return matchedNanopub;
+				if (reusableIndex.isDuplicateTopic(pos)) return multipleNanopubs;
+				return reusableIndex.getTopicUri(pos);
+			}
 		}
+		return existingTopics.get(topic);
+	}
+
+	private void setTopicMatched(String topic) {
+		if (matchedIndexTopics != null) {
+			long pos = reusableIndex.findTopic(topic);
+			if (pos >= 0) {
+				matchedIndexTopics.set((int) pos);
+				return;
+			}
+		}
+		existingTopics.put(topic, matchedNanopub);
+	}
+
+	private void process(Nanopub np, NanopubInfo info) throws IOException, RDFHandlerException, MalformedNanopubException, TrustyUriException {
+		inputCount++;
+		String fp = info.fingerprint;
+		String t = info.topic;
 		String uri = np.getUri().toString();
-		if (reusableNanopubs.containsKey(fp)) {
+		if (info.reusableUri != null) {
 			reuseCount++;
-			uri = reusableNanopubs.get(fp);
+			uri = info.reusableUri;
 			if (addSupersedesBacklinks) {
-				String et = existingTopics.get(t);
+				String et = getExistingTopic(t);
 				if (et == multipleNanopubs || et == matchedNanopub) {
 					topicMatchErrors++;
 				}
-				existingTopics.put(t, matchedNanopub);
+				setTopicMatched(t);
 			}
-			if (allOutputStream != null) {
+			if (allOutputStream != null && reuseNanopubSpill != null) {
+				reuseNanopubSpill.copyTo(reuseNanopubSpillRefs.get(FingerprintDigest.decode(fp), 0), allOutputStream);
+				allOutputStream.println();
+			} else if (allOutputStream != null) {
 				allOutputStream.println(reuseNanopubMap.get(fp));
 			}
 		} else {
 			if (addSupersedesBacklinks) {
-				if (existingTopics.containsKey(t)) {
-					String et = existingTopics.get(t);
+				String et = getExistingTopic(t);
+				if (et != null) {
 					if (et == multipleNanopubs) {
 						topicMatchErrors++;
 					} else if (et == matchedNanopub) {
@@ -327,9 +526,8 @@ public class Reuse {
 						outTopicDuplCount++;
 					} else {
 						topicMatchCount++;
-						String oldNpUri = existingTopics.get(t);
-						existingTopics.put(t, matchedNanopub);
-						np = addSupersedesBacklink(np, SimpleValueFactory.getInstance().createIRI(oldNpUri));
+						setTopicMatched(t);
+						np = addSupersedesBacklink(np, SimpleValueFactory.getInstance().createIRI(et));
 						uri = np.getUri().toString();
 					}
 				}
@@ -341,6 +539,9 @@ public class Reuse {
 				NanopubUtils.writeToStream(np, allOutputStream, rdfOutFormat);
 			}
 		}
+		if (cacheWriter != null) {
+			cacheWriter.add(uri, fp, t);
+		}
 		if (cacheStream != null) {
 			if (addSupersedesBacklinks) {
 				cacheStream.println(uri + " " + fp + " " + t);
@@ -357,7 +558,18 @@ public class Reuse {
 		return FixTrustyNanopub.fix(linkAdder.getNanopub());
 	}
 
-	
+
+	private static class NanopubInfo {
+
+		String fingerprint;
+		String topic;
+		String serialization;
+		byte[] serializedBytes;
+		String reusableUri;
+
+	}
+
+
 	private class SupersedesLinkAdder extends NanopubRdfHandler {
 
 		private IRI oldUri;
@@ -55,6 +55,7 @@ public class Run {
 		addRunnableClass(Decontextualize.class, "decontext");
 		addRunnableClass(Union.class, "union");
 		addRunnableClass(IndexReuse.class, "ireuse");
+		addRunnableClass(IndexFingerprints.class, "fpindex");
 		addRunnableClass(ExportJson.class, "exportjson");
 		addRunnableClass(Namespaces.class, "namespaces");
 		addRunnableClass(Aggregate.class, "aggregate");
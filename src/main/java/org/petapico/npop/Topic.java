@@ -8,20 +8,19 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import net.trustyuri.TrustyUriException;
 
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
-import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
-import org.eclipse.rdf4j.rio.Rio;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
 import org.petapico.npop.topic.DefaultTopics;
+import org.petapico.npop.topic.RewriteRuleTopics;
+import org.petapico.npop.util.RewriteRules;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -37,12 +36,22 @@ public class Topic {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
 	@com.beust.jcommander.Parameter(names = "-i", description = "Property URIs to ignore, separated by '|' (has no effect if -d is set)")
 	private String ignoreProperties;
 
 	@com.beust.jcommander.Parameter(names = "-h", description = "Topic handler class")
 	private String handlerClass;
 
+	@com.beust.jcommander.Parameter(names = "-r", description = "File with rewrite rules that are applied to the nanopub URI " +
+			"to get the topic (instead of a handler class)")
+	private File rulesFile;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Topic obj = new Topic();
@@ -72,13 +81,20 @@ public class Topic {
 		return obj;
 	}
 
-	private RDFFormat rdfInFormat;
 	private OutputStream outputStream = System.out;
 	private BufferedWriter writer;
 	private TopicHandler topicHandler;
 
 	private void init() {
-		if (handlerClass != null && !handlerClass.isEmpty()) {
+		if (rulesFile != null) {
+			try {
+				topicHandler = new RewriteRuleTopics(RewriteRules.load(rulesFile));
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			} catch (IllegalArgumentException ex) {
+				throw new ParameterException(ex.getMessage());
+			}
+		} else if (handlerClass != null && !handlerClass.isEmpty()) {
 			String detectorClassName = handlerClass;
 			if (!handlerClass.contains(".")) {
 				detectorClassName = "org.petapico.npop.topic." + handlerClass;
@@ -98,39 +114,29 @@ public class Topic {
 		if (inputNanopubs == null || inputNanopubs.isEmpty()) {
 			throw new ParameterException("No input files given");
 		}
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
+		if (outputFile != null) {
+			if (outputFile.getName().endsWith(".gz")) {
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
-			if (outputFile != null) {
-				if (outputFile.getName().endsWith(".gz")) {
-					outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
-				} else {
-					outputStream = new FileOutputStream(outputFile);
-				}
+				outputStream = new FileOutputStream(outputFile);
 			}
+		}
 
-			writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+		writer = new BufferedWriter(new OutputStreamWriter(outputStream));
 
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder);
+		input.process(new NanopubInput.Handler() {
 
-				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						writer.write(np.getUri() + " " + getTopic(np) + "\n");
-					} catch (IOException ex) {
-						throw new RuntimeException(ex);
-					}
-				}
+			@Override
+			public void handleNanopub(Nanopub np, File inputFile) throws IOException {
+				writer.write(np.getUri() + " " + getTopic(np) + "\n");
+			}
 
-			});
+		});
 
-			writer.flush();
-			if (outputStream != System.out) {
-				writer.close();
-			}
+		writer.flush();
+		if (outputStream != System.out) {
+			writer.close();
 		}
 	}
 
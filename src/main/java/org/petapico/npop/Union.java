@@ -1,25 +1,33 @@
 package org.petapico.npop;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
 import org.eclipse.rdf4j.rio.Rio;
 import org.nanopub.MalformedNanopubException;
-import org.nanopub.MultiNanopubRdfHandler;
-import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
 import org.nanopub.Nanopub;
 import org.nanopub.NanopubImpl;
 import org.nanopub.NanopubUtils;
+import org.petapico.npop.io.NanopubInput;
+import org.petapico.npop.io.ParallelGzipOutputStream;
+import org.petapico.npop.io.RawNquadsReader;
+import org.petapico.npop.util.NanopubUriSet;
+import org.petapico.npop.util.OrderedWorkerPool;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -37,9 +45,29 @@ public class Union {
 	@com.beust.jcommander.Parameter(names = "--in-format", description = "Format of the input nanopubs: trig, nq, trix, trig.gz, ...")
 	private String inFormat;
 
+	@com.beust.jcommander.Parameter(names = "--threads", description = "Number of input files to be read in parallel")
+	private int threads = 1;
+
+	@com.beust.jcommander.Parameter(names = "--preserve-order", description = "Keep the order of the input nanopubs when reading in parallel")
+	private boolean preserveOrder = false;
+
+	@com.beust.jcommander.Parameter(names = "--off-heap", description = "Keep the set of seen nanopub URIs outside of the Java heap")
+	private boolean offHeap = false;
+
+	@com.beust.jcommander.Parameter(names = "--shards", description = "Deduplicate in a second pass over this many temporary shard files, so only one shard's URIs per thread are kept in memory (output is grouped by shard)")
+	private int shardCount = 0;
+
+	@com.beust.jcommander.Parameter(names = "--spill-dir", description = "Directory for temporary shard files (default: system temp directory)")
+	private File spillDir;
+
 	@com.beust.jcommander.Parameter(names = "--out-format", description = "Format of the output nanopubs: trig, nq, trix, trig.gz, ...")
 	private String outFormat;
 
+	@com.beust.jcommander.Parameter(names = "--raw", description = "Copy the lines of N-Quads input to N-Quads output without parsing them; " +
+			"nanopubs are then not checked for their structure, duplicate statements within a nanopub are kept, " +
+			"and the input files are read one after the other (--threads only applies to --shards)")
+	private boolean raw = false;
+
 	public static void main(String[] args) {
 		NanopubImpl.ensureLoaded();
 		Union obj = new Union();
@@ -58,13 +86,21 @@ public class Union {
 		}
 	}
 
-	private RDFFormat rdfInFormat, rdfOutFormat;
+	private RDFFormat rdfOutFormat;
 	private OutputStream outputStream = System.out;
-	private Map<String,Boolean> seen = new HashMap<String,Boolean>();
-	private int duplicates = 0;
+	private NanopubUriSet seen;
+	private long duplicates = 0;
+	private File[] shardFiles;
+	private DataOutputStream[] shards;
+	private ByteArrayOutputStream serialized;
 
 	private void run() throws IOException, RDFParseException, RDFHandlerException,
 			MalformedNanopubException, TrustyUriException {
+		if (shardCount > 0) {
+			openShards();
+		} else {
+			seen = new NanopubUriSet(offHeap);
+		}
 		if (outputFile == null) {
 			if (outFormat == null) {
 				outFormat = "trig";
@@ -73,49 +109,188 @@ public class Union {
 		} else {
 			rdfOutFormat = Rio.getParserFormatForFileName(outputFile.getName()).orElse(null);
 			if (outputFile.getName().endsWith(".gz")) {
-				outputStream = new GZIPOutputStream(new FileOutputStream(outputFile));
+				outputStream = new ParallelGzipOutputStream(new FileOutputStream(outputFile));
 			} else {
 				outputStream = new FileOutputStream(outputFile);
 			}
 		}
 
-		for (File inputFile : inputNanopubs) {
-			if (inFormat != null) {
-				rdfInFormat = Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
-			} else {
-				rdfInFormat = Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
-			}
-
-			MultiNanopubRdfHandler.process(rdfInFormat, inputFile, new NanopubHandler() {
+		NanopubInput input = new NanopubInput(inputNanopubs, inFormat).setThreads(threads).setPreserveOrder(preserveOrder);
+		if (raw) {
+			if (!isNquadsOnly(input)) throw new ParameterException("--raw requires N-Quads input and output");
+			processRawNquads();
+		} else {
+			input.process(new NanopubInput.Handler() {
 
 				@Override
-				public void handleNanopub(Nanopub np) {
-					try {
-						process(np);
-					} catch (RDFHandlerException ex) {
-						throw new RuntimeException(ex);
-					}
+				public void handleNanopub(Nanopub np, File inputFile) throws RDFHandlerException, IOException {
+					process(np);
 				}
 
 			});
-
+		}
+		if (shards != null) {
+			mergeShards();
 		}
 
 		System.err.println(duplicates + " duplicates eliminated");
+		if (seen != null) {
+			System.err.println("Seen URIs: " + seen.getStats());
+		}
 		outputStream.flush();
 		if (outputStream != System.out) {
 			outputStream.close();
 		}
 	}
 
-	private void process(Nanopub np) throws RDFHandlerException {
+	private boolean isNquadsOnly(NanopubInput input) {
+		if (rdfOutFormat != RDFFormat.NQUADS) return false;
+		for (File f : inputNanopubs) {
+			if (input.getFormat(f) != RDFFormat.NQUADS) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the lines of new nanopubs from N-Quads input to N-Quads output, without parsing and
+	 * serializing them.
+	 */
+	private void processRawNquads() throws IOException, MalformedNanopubException {
+		final OutputStream out = new BufferedOutputStream(outputStream, 1 << 16);
+		for (File inputFile : inputNanopubs) {
+			new RawNquadsReader(NanopubInput.open(inputFile), new RawNquadsReader.Handler() {
+
+				@Override
+				public void handleNanopub(String nanopubUri, byte[] data, int length) throws IOException {
+					if (shards != null) {
+						writeToShard(nanopubUri, data, length);
+					} else if (seen.add(nanopubUri)) {
+						out.write(data, 0, length);
+					} else {
+						duplicates++;
+					}
+				}
+
+			}).read();
+		}
+		out.flush();
+	}
+
+	private void process(Nanopub np) throws RDFHandlerException, IOException {
 		String u = np.getUri().stringValue();
-		if (seen.containsKey(u)) {
-			duplicates++;
-		} else {
+		if (shards != null) {
+			serialized.reset();
+			NanopubUtils.writeToStream(np, serialized, rdfOutFormat);
+			writeToShard(u, serialized.toByteArray(), serialized.size());
+		} else if (seen.add(u)) {
 			NanopubUtils.writeToStream(np, outputStream, rdfOutFormat);
-			seen.put(u, true);
+		} else {
+			duplicates++;
+		}
+	}
+
+	private void openShards() throws IOException {
+		shardFiles = new File[shardCount];
+		shards = new DataOutputStream[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shardFiles[i] = File.createTempFile("npop-", ".shard", spillDir);
+			shardFiles[i].deleteOnExit();
+			shards[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(shardFiles[i]), 1 << 16));
+		}
+		serialized = new ByteArrayOutputStream();
+	}
+
+	private void writeToShard(String nanopubUri, byte[] data, int length) throws IOException {
+		int h = nanopubUri.hashCode() * 0x9e3779b9;
+		DataOutputStream out = shards[(int) ((h & 0xffffffffL) % shardCount)];
+		out.writeUTF(nanopubUri);
+		out.writeInt(length);
+		out.write(data, 0, length);
+	}
+
+	/**
+	 * Deduplicates the shards (in parallel if there are several threads) and appends the result
+	 * of each shard to the output, in the order of the shards.
+	 */
+	private void mergeShards() throws IOException {
+		for (DataOutputStream out : shards) {
+			out.close();
 		}
+		final long[] largestShard = new long[] { -1 };
+		final String[] largestShardStats = new String[1];
+		OrderedWorkerPool<Integer,ShardResult> pool = new OrderedWorkerPool<Integer,ShardResult>(Math.max(1, threads), Math.max(1, threads)) {
+
+			@Override
+			protected ShardResult compute(Integer shard) throws IOException {
+				return deduplicateShard(shardFiles[shard]);
+			}
+
+			@Override
+			protected void handleResult(Integer shard, ShardResult result) throws IOException {
+				try {
+					Files.copy(result.output.toPath(), outputStream);
+				} finally {
+					result.output.delete();
+				}
+				duplicates += result.duplicates;
+				if (result.uris.size() > largestShard[0]) {
+					largestShard[0] = result.uris.size();
+					largestShardStats[0] = result.uris.getStats();
+				}
+			}
+
+		};
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				pool.submit(i);
+			}
+			pool.finish();
+		} finally {
+			for (File f : shardFiles) f.delete();
+		}
+		System.err.println("Seen URIs of largest of " + shardCount + " shards: " + largestShardStats[0]);
+	}
+
+	private ShardResult deduplicateShard(File shardFile) throws IOException {
+		ShardResult result = new ShardResult();
+		result.uris = new NanopubUriSet(offHeap);
+		result.output = File.createTempFile("npop-", ".part", spillDir);
+		result.output.deleteOnExit();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(shardFile), 1 << 16));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(result.output), 1 << 16);
+		try {
+			byte[] data = new byte[1 << 14];
+			while (true) {
+				String nanopubUri;
+				try {
+					nanopubUri = in.readUTF();
+				} catch (EOFException ex) {
+					break;
+				}
+				int length = in.readInt();
+				if (length > data.length) data = new byte[Math.max(length, data.length * 2)];
+				in.readFully(data, 0, length);
+				if (result.uris.add(nanopubUri)) {
+					out.write(data, 0, length);
+				} else {
+					result.duplicates++;
+				}
+			}
+		} finally {
+			in.close();
+			out.close();
+			shardFile.delete();
+		}
+		return result;
+	}
+
+
+	private static class ShardResult {
+
+		File output;
+		NanopubUriSet uris;
+		long duplicates;
+
 	}
 
 }
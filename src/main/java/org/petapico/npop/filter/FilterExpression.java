@@ -0,0 +1,395 @@
+package org.petapico.npop.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.nanopub.Nanopub;
+import org.nanopub.NanopubUtils;
+
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Boolean filter expression over the statements of a nanopub, for example:
+ *
+ *   assertion.pred = http://example.org/p AND NOT pubinfo.obj = "some literal"
+ *   prov.subj ^= http://example.org/ OR (obj *= gene AND head.graph ~= [0-9]$)
+ *
+ * A condition has the form [graph.]position operator value, where graph is one of assertion, prov,
+ * pubinfo or head (all graphs if omitted), position is one of subj, pred, obj, graph or term (any
+ * of them), and operator is one of = (equals), ^= (starts with), *= (contains) or ~= (regular
+ * expression found). A condition is true if at least one statement in the graph has a matching
+ * value at the given position. Values can be given plain, in angle brackets, or in double quotes
+ * (with \" and \\ as escapes). Conditions are combined with NOT, AND, OR (in order of precedence)
+ * and parentheses.
+ *
+ * AND and OR are evaluated with short-circuiting. Their operands are ordered by estimated cost
+ * at the start, and later reordered by the observed rate at which they decide the result, so
+ * cheap and selective operands come first. As this keeps statistics, an expression must not be
+ * evaluated from several threads at the same time.
+ */
+public abstract class FilterExpression {
+
+	public static FilterExpression parse(String expression) throws ParameterException {
+		return new Parser(expression).parse();
+	}
+
+	public abstract boolean matches(Nanopub np);
+
+	abstract double getCost();
+
+
+	private static enum Graph {
+
+		ALL(8), ASSERTION(4), PROVENANCE(2), PUBINFO(2), HEAD(1);
+
+		final int cost;
+
+		Graph(int cost) {
+			this.cost = cost;
+		}
+
+		Collection<Statement> getStatements(Nanopub np) {
+			switch (this) {
+			case ASSERTION: return np.getAssertion();
+			case PROVENANCE: return np.getProvenance();
+			case PUBINFO: return np.getPubinfo();
+			case HEAD: return np.getHead();
+			default: return NanopubUtils.getStatements(np);
+			}
+		}
+
+	}
+
+
+	private static enum Position {
+
+		SUBJECT, PREDICATE, OBJECT, GRAPH, TERM
+
+	}
+
+
+	private static class Condition extends FilterExpression {
+
+		private Graph graph;
+		private Position position;
+		private TermMatcher matcher = new TermMatcher();
+		private double cost;
+
+		Condition(Graph graph, Position position, String operator, String value) {
+			this.graph = graph;
+			this.position = position;
+			int opCost;
+			if (operator.equals("=")) {
+				matcher.addExact(value);
+				opCost = 1;
+			} else if (operator.equals("^=")) {
+				matcher.addPrefix(value);
+				opCost = 2;
+			} else if (operator.equals("*=")) {
+				matcher.addSubstring(value);
+				opCost = 3;
+			} else {
+				matcher.addRegex(value);
+				opCost = 10;
+			}
+			matcher.compile();
+			cost = graph.cost * opCost * (position == Position.TERM ? 4 : 1);
+		}
+
+		@Override
+		public boolean matches(Nanopub np) {
+			for (Statement st : graph.getStatements(np)) {
+				switch (position) {
+				case SUBJECT:
+					if (matches(st.getSubject())) return true;
+					break;
+				case PREDICATE:
+					if (matches(st.getPredicate())) return true;
+					break;
+				case OBJECT:
+					if (matches(st.getObject())) return true;
+					break;
+				case GRAPH:
+					if (matches(st.getContext())) return true;
+					break;
+				default:
+					if (matches(st.getSubject()) || matches(st.getPredicate()) ||
+							matches(st.getObject()) || matches(st.getContext())) return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean matches(Value v) {
+			return v != null && matcher.matches(v.stringValue());
+		}
+
+		@Override
+		double getCost() {
+			return cost;
+		}
+
+	}
+
+
+	private static class Not extends FilterExpression {
+
+		private FilterExpression operand;
+
+		Not(FilterExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public boolean matches(Nanopub np) {
+			return !operand.matches(np);
+		}
+
+		@Override
+		double getCost() {
+			return operand.getCost();
+		}
+
+	}
+
+
+	/**
+	 * AND (if the deciding result is false) or OR (if it is true) of several operands.
+	 */
+	private static class Junction extends FilterExpression {
+
+		private static final int REORDER_INTERVAL = 4096;
+
+		private boolean deciding;
+		private Operand[] operands;
+		private int evaluations = 0;
+
+		Junction(boolean deciding, List<FilterExpression> expressions) {
+			this.deciding = deciding;
+			operands = new Operand[expressions.size()];
+			for (int i = 0; i < operands.length; i++) {
+				operands[i] = new Operand(expressions.get(i));
+			}
+			reorder();
+		}
+
+		@Override
+		public boolean matches(Nanopub np) {
+			if (++evaluations % REORDER_INTERVAL == 0) reorder();
+			for (Operand o : operands) {
+				o.evaluations++;
+				if (o.expression.matches(np) == deciding) {
+					o.decisions++;
+					return deciding;
+				}
+			}
+			return !deciding;
+		}
+
+		private void reorder() {
+			for (Operand o : operands) {
+				// estimated probability that the operand decides the result, with a weak prior of 1/2
+				double p = (o.decisions + 1.0) / (o.evaluations + 2.0);
+				o.rank = o.expression.getCost() / p;
+			}
+			Arrays.sort(operands, byRank);
+		}
+
+		@Override
+		double getCost() {
+			double cost = 0;
+			for (Operand o : operands) {
+				cost += o.expression.getCost();
+			}
+			return cost;
+		}
+
+		private static final Comparator<Operand> byRank = new Comparator<Operand>() {
+
+			@Override
+			public int compare(Operand o1, Operand o2) {
+				return Double.compare(o1.rank, o2.rank);
+			}
+
+		};
+
+	}
+
+
+	private static class Operand {
+
+		FilterExpression expression;
+		long evaluations;
+		long decisions;
+		double rank;
+
+		Operand(FilterExpression expression) {
+			this.expression = expression;
+		}
+
+	}
+
+
+	private static class Parser {
+
+		private String s;
+		private int pos = 0;
+
+		Parser(String s) {
+			this.s = s;
+		}
+
+		FilterExpression parse() {
+			FilterExpression e = parseOr();
+			skipWhitespace();
+			if (pos < s.length()) throw error("Unexpected input");
+			return e;
+		}
+
+		private FilterExpression parseOr() {
+			List<FilterExpression> list = new ArrayList<>();
+			list.add(parseAnd());
+			while (readKeyword("OR")) {
+				list.add(parseAnd());
+			}
+			if (list.size() == 1) return list.get(0);
+			return new Junction(true, list);
+		}
+
+		private FilterExpression parseAnd() {
+			List<FilterExpression> list = new ArrayList<>();
+			list.add(parseNot());
+			while (readKeyword("AND")) {
+				list.add(parseNot());
+			}
+			if (list.size() == 1) return list.get(0);
+			return new Junction(false, list);
+		}
+
+		private FilterExpression parseNot() {
+			if (readKeyword("NOT")) return new Not(parseNot());
+			skipWhitespace();
+			if (pos < s.length() && s.charAt(pos) == '(') {
+				pos++;
+				FilterExpression e = parseOr();
+				skipWhitespace();
+				if (pos >= s.length() || s.charAt(pos) != ')') throw error("Missing closing parenthesis");
+				pos++;
+				return e;
+			}
+			return parseCondition();
+		}
+
+		private FilterExpression parseCondition() {
+			skipWhitespace();
+			int start = pos;
+			while (pos < s.length() && (Character.isLetter(s.charAt(pos)) || s.charAt(pos) == '.')) pos++;
+			String field = s.substring(start, pos).toLowerCase();
+			if (field.isEmpty()) throw error("Condition expected");
+			Graph graph = Graph.ALL;
+			String positionName = field;
+			if (field.contains(".")) {
+				String graphName = field.substring(0, field.indexOf('.'));
+				positionName = field.substring(field.indexOf('.') + 1);
+				if (graphName.equals("assertion") || graphName.equals("a")) {
+					graph = Graph.ASSERTION;
+				} else if (graphName.equals("provenance") || graphName.equals("prov")) {
+					graph = Graph.PROVENANCE;
+				} else if (graphName.equals("pubinfo")) {
+					graph = Graph.PUBINFO;
+				} else if (graphName.equals("head")) {
+					graph = Graph.HEAD;
+				} else {
+					throw error("Unknown graph '" + graphName + "'", start);
+				}
+			}
+			Position position;
+			if (positionName.equals("subj") || positionName.equals("subject")) {
+				position = Position.SUBJECT;
+			} else if (positionName.equals("pred") || positionName.equals("predicate")) {
+				position = Position.PREDICATE;
+			} else if (positionName.equals("obj") || positionName.equals("object")) {
+				position = Position.OBJECT;
+			} else if (positionName.equals("graph") || positionName.equals("context")) {
+				position = Position.GRAPH;
+			} else if (positionName.equals("term")) {
+				position = Position.TERM;
+			} else {
+				throw error("Unknown position '" + positionName + "'", start);
+			}
+			skipWhitespace();
+			String operator = null;
+			for (String op : new String[] { "=", "^=", "*=", "~=" }) {
+				if (s.startsWith(op, pos)) operator = op;
+			}
+			if (operator == null) throw error("Operator expected (=, ^=, *= or ~=)");
+			pos += operator.length();
+			String value = readValue();
+			if (operator.equals("~=")) {
+				try {
+					Pattern.compile(value);
+				} catch (PatternSyntaxException ex) {
+					throw error("Invalid regular expression: " + ex.getDescription());
+				}
+			}
+			return new Condition(graph, position, operator, value);
+		}
+
+		private String readValue() {
+			skipWhitespace();
+			if (pos >= s.length()) throw error("Value expected");
+			char c = s.charAt(pos);
+			if (c == '"') {
+				StringBuilder sb = new StringBuilder();
+				pos++;
+				while (pos < s.length() && s.charAt(pos) != '"') {
+					if (s.charAt(pos) == '\\' && pos + 1 < s.length()) pos++;
+					sb.append(s.charAt(pos++));
+				}
+				if (pos >= s.length()) throw error("Missing closing quote");
+				pos++;
+				return sb.toString();
+			} else if (c == '<') {
+				int end = s.indexOf('>', pos);
+				if (end < 0) throw error("Missing closing '>'");
+				String value = s.substring(pos + 1, end);
+				pos = end + 1;
+				return value;
+			} else {
+				int start = pos;
+				while (pos < s.length() && !Character.isWhitespace(s.charAt(pos)) && s.charAt(pos) != ')') pos++;
+				return s.substring(start, pos);
+			}
+		}
+
+		private boolean readKeyword(String keyword) {
+			skipWhitespace();
+			int end = pos + keyword.length();
+			if (!s.regionMatches(true, pos, keyword, 0, keyword.length())) return false;
+			if (end < s.length() && !Character.isWhitespace(s.charAt(end)) && s.charAt(end) != '(') return false;
+			pos = end;
+			return true;
+		}
+
+		private void skipWhitespace() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+		}
+
+		private ParameterException error(String message) {
+			return error(message, pos);
+		}
+
+		private ParameterException error(String message, int position) {
+			return new ParameterException("Invalid filter expression at position " + position + ": " + message);
+		}
+
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.petapico.npop.filter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, persistent set of exact filter terms for very large term lists. Terms are stored as
+ * sorted 64-bit hashes, with a blocked Bloom filter (about 10 bits per term) in front of them, so
+ * most terms that are not in the set are rejected with a single cache miss. The index file is
+ * memory-mapped, so the set lives outside of the Java heap and can be reused across runs. Two
+ * different strings are only confused if their 64-bit hashes collide. Pattern terms (see
+ * TermMatcher) are stored as strings in the same file.
+ */
+public class TermIndex {
+
+	private static final long MAGIC = 0x4e504f505445524dL;  // "NPOPTERM"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 40;
+
+	private static final int BITS_PER_TERM = 10;
+	private static final int BLOCK_LONGS = 8;  // 512 bits, one cache line
+	private static final int HASH_COUNT = 7;
+
+	private static final int SEGMENT_BITS = 27;
+	private static final long SEGMENT_LONGS = 1L << SEGMENT_BITS;
+
+	public static class Builder {
+
+		private long[] hashes = new long[1024];
+		private int size = 0;
+		private List<String> patternTerms = new ArrayList<>();
+
+		public void add(String term) {
+			if (TermMatcher.isPattern(term)) {
+				patternTerms.add(term);
+				return;
+			}
+			if (size == hashes.length) {
+				if (hashes.length == Integer.MAX_VALUE - 8) throw new IllegalStateException("Too many terms");
+				hashes = Arrays.copyOf(hashes, (int) Math.min(hashes.length * 2L, Integer.MAX_VALUE - 8));
+			}
+			hashes[size++] = hash(TermMatcher.getExactString(term));
+		}
+
+		public void write(File file) throws IOException {
+			Arrays.sort(hashes, 0, size);
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (n == 0 || hashes[i] != hashes[n - 1]) hashes[n++] = hashes[i];
+			}
+			long blocks = Math.max(1, ((long) n * BITS_PER_TERM + BLOCK_LONGS * 64 - 1) / (BLOCK_LONGS * 64));
+			long[] bloom = new long[(int) (blocks * BLOCK_LONGS)];
+			for (int i = 0; i < n; i++) {
+				int b = block(hashes[i], blocks);
+				long g = mix(hashes[i]);
+				for (int k = 0; k < HASH_COUNT; k++) {
+					int bit = (int) (g >>> (k * 9)) & 511;
+					bloom[b + (bit >>> 6)] |= 1L << bit;
+				}
+			}
+			byte[] patterns = join(patternTerms).getBytes(StandardCharsets.UTF_8);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try {
+				out.writeLong(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(0);
+				out.writeLong(n);
+				out.writeLong(bloom.length);
+				out.writeLong(patterns.length);
+				out.write(patterns);
+				for (int i = patterns.length; i % 8 != 0; i++) out.write(0);
+				for (long l : bloom) out.writeLong(l);
+				for (int i = 0; i < n; i++) out.writeLong(hashes[i]);
+			} finally {
+				out.close();
+			}
+		}
+
+	}
+
+	public static TermIndex load(File file) throws IOException {
+		return new TermIndex(file);
+	}
+
+	private long termCount;
+	private long blocks;
+	private LongBuffer bloom;
+	private LongBuffer[] hashSegments;
+	private List<String> patternTerms = new ArrayList<>();
+
+	private TermIndex(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+				throw new IOException("Not a term index file: " + file);
+			}
+			termCount = header.getLong(16);
+			long bloomLongs = header.getLong(24);
+			int patternLength = (int) header.getLong(32);
+			if (patternLength > 0) {
+				ByteBuffer pb = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, patternLength);
+				byte[] b = new byte[patternLength];
+				pb.get(b);
+				patternTerms.addAll(Arrays.asList(new String(b, StandardCharsets.UTF_8).split("\n")));
+			}
+			long offset = HEADER_SIZE + (patternLength + 7) / 8 * 8;
+			blocks = bloomLongs / BLOCK_LONGS;
+			if (bloomLongs * 8 > Integer.MAX_VALUE) throw new IOException("Bloom filter too large to be mapped");
+			bloom = channel.map(FileChannel.MapMode.READ_ONLY, offset, bloomLongs * 8).asLongBuffer();
+			offset += bloomLongs * 8;
+			int segmentCount = (int) ((termCount + SEGMENT_LONGS - 1) / SEGMENT_LONGS);
+			hashSegments = new LongBuffer[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				long start = i * SEGMENT_LONGS;
+				long length = Math.min(SEGMENT_LONGS, termCount - start);
+				hashSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start * 8, length * 8).asLongBuffer();
+			}
+		} finally {
+			// mapped buffers stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	public long size() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the pattern terms (prefix, substring and regex terms), which are not part of the
+	 * hash set and have to be matched with a TermMatcher.
+	 */
+	public List<String> getPatternTerms() {
+		return patternTerms;
+	}
+
+	public boolean contains(String term) {
+		long h = hash(term);
+		int b = block(h, blocks);
+		long g = mix(h);
+		for (int k = 0; k < HASH_COUNT; k++) {
+			int bit = (int) (g >>> (k * 9)) & 511;
+			if ((bloom.get(b + (bit >>> 6)) & (1L << bit)) == 0) return false;
+		}
+		long low = 0;
+		long high = termCount - 1;
+		while (low <= high) {
+			long mid = (low + high) >>> 1;
+			long v = hashSegments[(int) (mid >>> SEGMENT_BITS)].get((int) (mid & (SEGMENT_LONGS - 1)));
+			if (v < h) {
+				low = mid + 1;
+			} else if (v > h) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static long hash(String s) {
+		// FNV-1a over the chars, followed by a final mix to spread the bits
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static int block(long h, long blocks) {
+		return (int) (((h >>> 32) * blocks) >>> 32) * BLOCK_LONGS;
+	}
+
+	private static String join(List<String> terms) {
+		StringBuilder sb = new StringBuilder();
+		for (String t : terms) {
+			if (sb.length() > 0) sb.append("\n");
+			sb.append(t);
+		}
+		return sb.toString();
+	}
+
+}
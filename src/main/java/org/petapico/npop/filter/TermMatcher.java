@@ -0,0 +1,276 @@
+package org.petapico.npop.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches strings against a set of filter terms. A term can be:
+ *
+ * - "abc": matches "abc" exactly
+ * - "abc*": matches strings starting with "abc"
+ * - "*abc*": matches strings containing "abc"
+ * - "/abc/": matches strings containing a match of the regular expression "abc"
+ * - "=abc": matches "abc" exactly, also if it looks like one of the patterns above, e.g. "=/abc/"
+ *
+ * Prefix and substring terms are compiled into one Aho-Corasick automaton, so a string is checked
+ * against all of them in a single pass over its characters, independent of the number of terms.
+ * Once compiled, a matcher can be used from several threads.
+ */
+public class TermMatcher {
+
+	private static final int ROOT = 0;
+
+	private static final byte PREFIX_END = 1;
+	private static final byte SUBSTRING_END = 2;
+
+	private Set<String> exactTerms = new HashSet<>();
+	private List<String> regexTerms = new ArrayList<>();
+	private Pattern regex;
+
+	// Trie nodes; children are kept as sibling lists for building and in a hash table for lookup
+	private int nodeCount = 1;
+	private int[] firstChild = new int[1024];
+	private int[] nextSibling = new int[1024];
+	private char[] label = new char[1024];
+	private int[] fail = new int[1024];
+	private byte[] flags = new byte[1024];
+	private boolean hasSubstringTerms = false;
+
+	private long[] transitionKeys = new long[2048];
+	private int[] transitionTargets = new int[2048];
+	private int transitionMask = transitionKeys.length - 1;
+
+	private volatile boolean compiled = false;
+
+	public TermMatcher() {
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+	}
+
+	public void add(String term) {
+		if (term.startsWith("=")) {
+			addExact(term.substring(1));
+		} else if (term.length() > 2 && term.startsWith("*") && term.endsWith("*")) {
+			addSubstring(term.substring(1, term.length() - 1));
+		} else if (term.endsWith("*")) {
+			addPrefix(term.substring(0, term.length() - 1));
+		} else if (term.length() > 2 && term.startsWith("/") && term.endsWith("/")) {
+			addRegex(term.substring(1, term.length() - 1));
+		} else {
+			addExact(term);
+		}
+	}
+
+	public void addExact(String s) {
+		checkNotCompiled();
+		exactTerms.add(s);
+	}
+
+	public void addPrefix(String prefix) {
+		checkNotCompiled();
+		addToTrie(prefix, PREFIX_END);
+	}
+
+	public void addSubstring(String substring) {
+		checkNotCompiled();
+		addToTrie(substring, SUBSTRING_END);
+		hasSubstringTerms = true;
+	}
+
+	public void addRegex(String regex) {
+		checkNotCompiled();
+		try {
+			Pattern.compile(regex);
+		} catch (PatternSyntaxException ex) {
+			throw new IllegalArgumentException("Invalid regular expression in term /" + regex + "/ " +
+					"(use =/" + regex + "/ to match it exactly): " + ex.getDescription());
+		}
+		regexTerms.add(regex);
+	}
+
+	private void checkNotCompiled() {
+		if (compiled) throw new IllegalStateException("Matcher already compiled");
+	}
+
+	/**
+	 * Returns true if the given term is a prefix, substring or regex term, and false if it is
+	 * matched exactly.
+	 */
+	public static boolean isPattern(String term) {
+		if (term.startsWith("=")) return false;
+		if (term.endsWith("*")) return true;
+		if (term.length() > 2 && term.startsWith("/") && term.endsWith("/")) return true;
+		return false;
+	}
+
+	/**
+	 * Returns the string that the given term matches exactly, if it is not a pattern.
+	 */
+	public static String getExactString(String term) {
+		return term.startsWith("=") ? term.substring(1) : term;
+	}
+
+	/**
+	 * Builds the failure links of the automaton and the regular expression. This is done
+	 * automatically on the first call to matches().
+	 */
+	public synchronized void compile() {
+		if (compiled) return;
+		if (!regexTerms.isEmpty()) {
+			StringBuilder sb = new StringBuilder();
+			for (String r : regexTerms) {
+				if (sb.length() > 0) sb.append("|");
+				sb.append("(?:").append(r).append(")");
+			}
+			regex = Pattern.compile(sb.toString());
+		}
+		if (hasSubstringTerms) buildFailureLinks();
+		compiled = true;
+	}
+
+	public boolean matches(String s) {
+		if (!compiled) compile();
+		if (exactTerms.contains(s)) return true;
+		if (nodeCount > 1 || flags[ROOT] != 0) {
+			if (matchesTrie(s)) return true;
+		}
+		if (regex != null && regex.matcher(s).find()) return true;
+		return false;
+	}
+
+	private boolean matchesTrie(String s) {
+		if (flags[ROOT] != 0) return true;
+		int state = ROOT;
+		// true as long as the current state stands for the whole string read so far
+		boolean atStart = true;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			int next = getChild(state, c);
+			if (next < 0) {
+				if (!hasSubstringTerms) return false;
+				atStart = false;
+				while (next < 0 && state != ROOT) {
+					state = fail[state];
+					next = getChild(state, c);
+				}
+				if (next < 0) next = ROOT;
+			}
+			state = next;
+			byte f = flags[state];
+			if ((f & SUBSTRING_END) != 0) return true;
+			if (atStart && (f & PREFIX_END) != 0) return true;
+		}
+		return false;
+	}
+
+	private void addToTrie(String s, byte flag) {
+		int node = ROOT;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			int child = getChild(node, c);
+			if (child < 0) child = addChild(node, c);
+			node = child;
+		}
+		flags[node] |= flag;
+	}
+
+	private int addChild(int parent, char c) {
+		if (nodeCount == label.length) {
+			int n = label.length * 2;
+			firstChild = Arrays.copyOf(firstChild, n);
+			nextSibling = Arrays.copyOf(nextSibling, n);
+			Arrays.fill(firstChild, nodeCount, n, -1);
+			Arrays.fill(nextSibling, nodeCount, n, -1);
+			label = Arrays.copyOf(label, n);
+			fail = Arrays.copyOf(fail, n);
+			flags = Arrays.copyOf(flags, n);
+		}
+		int node = nodeCount++;
+		label[node] = c;
+		nextSibling[node] = firstChild[parent];
+		firstChild[parent] = node;
+		putTransition(parent, c, node);
+		return node;
+	}
+
+	private void buildFailureLinks() {
+		int[] queue = new int[nodeCount];
+		int head = 0, tail = 0;
+		for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+			fail[child] = ROOT;
+			queue[tail++] = child;
+		}
+		while (head < tail) {
+			int node = queue[head++];
+			for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+				char c = label[child];
+				int f = fail[node];
+				int target = getChild(f, c);
+				while (target < 0 && f != ROOT) {
+					f = fail[f];
+					target = getChild(f, c);
+				}
+				fail[child] = (target < 0 ? ROOT : target);
+				// substring matches ending here include those ending at the failure state
+				if ((flags[fail[child]] & SUBSTRING_END) != 0) flags[child] |= SUBSTRING_END;
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	private int getChild(int node, char c) {
+		long key = transitionKey(node, c);
+		int slot = slot(key);
+		while (true) {
+			long k = transitionKeys[slot];
+			if (k == 0) return -1;
+			if (k == key) return transitionTargets[slot];
+			slot = (slot + 1) & transitionMask;
+		}
+	}
+
+	private void putTransition(int node, char c, int target) {
+		long key = transitionKey(node, c);
+		int slot = slot(key);
+		while (transitionKeys[slot] != 0) {
+			slot = (slot + 1) & transitionMask;
+		}
+		transitionKeys[slot] = key;
+		transitionTargets[slot] = target;
+		// one transition per node except the root
+		if ((nodeCount - 1) * 4L > transitionKeys.length * 3L) rehash();
+	}
+
+	private void rehash() {
+		long[] oldKeys = transitionKeys;
+		int[] oldTargets = transitionTargets;
+		transitionKeys = new long[oldKeys.length * 2];
+		transitionTargets = new int[oldKeys.length * 2];
+		transitionMask = transitionKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0) continue;
+			int slot = slot(oldKeys[i]);
+			while (transitionKeys[slot] != 0) {
+				slot = (slot + 1) & transitionMask;
+			}
+			transitionKeys[slot] = oldKeys[i];
+			transitionTargets[slot] = oldTargets[i];
+		}
+	}
+
+	private static long transitionKey(int node, char c) {
+		// never 0, which marks empty slots
+		return ((long) node << 16 | c) + 1;
+	}
+
+	private int slot(long key) {
+		key *= 0x9e3779b97f4a7c15L;
+		return (int) (key ^ (key >>> 32)) & transitionMask;
+	}
+
+}
@@ -2,18 +2,15 @@ package org.petapico.npop.fingerprint;
 
 import static org.nanopub.SimpleTimestampPattern.isCreationTimeProperty;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Set;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.nanopub.Nanopub;
-import org.nanopub.NanopubUtils;
 
 import net.trustyuri.TrustyUriUtils;
-import net.trustyuri.rdf.RdfHasher;
-import net.trustyuri.rdf.RdfPreprocessor;
 
 public class DefaultFingerprints implements FingerprintHandler {
 
@@ -33,33 +30,31 @@ public class DefaultFingerprints implements FingerprintHandler {
 		if (artifactCode == null) {
 			throw new RuntimeException("Not a trusty URI: " + np.getUri());
 		}
-		List<Statement> statements = getNormalizedStatements(np);
-		statements = RdfPreprocessor.run(statements, artifactCode);
-		String fingerprint = RdfHasher.makeArtifactCode(statements);
-		return fingerprint.substring(2);
+		FingerprintHasher hasher = FingerprintHasher.forCurrentThread().start(artifactCode);
+		for (Set<Statement> graph : Arrays.asList(np.getHead(), np.getAssertion(), np.getProvenance(), np.getPubinfo())) {
+			for (Statement st : graph) {
+				if (isIncluded(st, np)) hasher.add(st);
+			}
+		}
+		return hasher.finish();
 	}
 
-	protected List<Statement> getNormalizedStatements(Nanopub np) {
-		List<Statement> statements = NanopubUtils.getStatements(np);
-		List<Statement> n = new ArrayList<>();
-		for (Statement st : statements) {
-			boolean isInHead = st.getContext().equals(np.getHeadUri());
-			if (isInHead && ignoreHead) continue;
-			boolean isInProv = st.getContext().equals(np.getProvenanceUri());
-			if (isInProv && ignoreProv) continue;
-			boolean isInPubInfo = st.getContext().equals(np.getPubinfoUri());
-			if (isInPubInfo && ignorePubinfo) continue;
-			Resource subj = st.getSubject();
-			IRI pred = st.getPredicate();
-			if (isInPubInfo && subj.equals(np.getUri()) && isCreationTimeProperty(pred)) {
-				continue;
-			}
-			if (isInPubInfo && subj.equals(np.getUri()) && pred.equals(Nanopub.SUPERSEDES)) {
-				continue;
-			}
-			n.add(st);
+	private boolean isIncluded(Statement st, Nanopub np) {
+		boolean isInHead = st.getContext().equals(np.getHeadUri());
+		if (isInHead && ignoreHead) return false;
+		boolean isInProv = st.getContext().equals(np.getProvenanceUri());
+		if (isInProv && ignoreProv) return false;
+		boolean isInPubInfo = st.getContext().equals(np.getPubinfoUri());
+		if (isInPubInfo && ignorePubinfo) return false;
+		Resource subj = st.getSubject();
+		IRI pred = st.getPredicate();
+		if (isInPubInfo && subj.equals(np.getUri()) && isCreationTimeProperty(pred)) {
+			return false;
+		}
+		if (isInPubInfo && subj.equals(np.getUri()) && pred.equals(Nanopub.SUPERSEDES)) {
+			return false;
 		}
-		return n;
+		return true;
 	}
 
 }
@@ -0,0 +1,224 @@
+package org.petapico.npop.fingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary fingerprint cache files (*.fpc), as an alternative to the text cache files of lines
+ * "uri fingerprint [topic]". Layout:
+ *
+ * <pre>
+ * header (64 bytes):  magic "NPFC", version, flags, reserved,
+ *                     entry count, string count, string region offset, string region length
+ * entries:            entry count x (32-byte fingerprint digest, long URI ref, long topic ref)
+ * string region:      string count x (int length, UTF-8 bytes)
+ * </pre>
+ *
+ * String refs are byte offsets into the string region; the topic ref is -1 if there is no topic.
+ * Strings are written in entry order, so both regions can be read sequentially.
+ */
+public class FingerprintCache {
+
+	private FingerprintCache() {}  // no instances allowed
+
+	public static final String FILE_EXTENSION = ".fpc";
+
+	private static final int MAGIC = 0x4e504643;  // "NPFC"
+	private static final int VERSION = 1;
+	private static final int FLAG_TOPICS = 1;
+	private static final int HEADER_LENGTH = 64;
+	private static final int ENTRY_LENGTH = FingerprintDigest.LENGTH + 16;
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	public static boolean isCacheFile(File file) {
+		return file.getName().endsWith(FILE_EXTENSION);
+	}
+
+
+	public static class Writer {
+
+		private File file, stringFile;
+		private DataOutputStream entryOut, stringOut;
+		private boolean withTopics;
+		private long entryCount, stringCount, stringsLength;
+		private byte[] digest = new byte[FingerprintDigest.LENGTH];
+
+		public Writer(File file, boolean withTopics) throws IOException {
+			this.file = file;
+			this.withTopics = withTopics;
+			stringFile = File.createTempFile("npop-", ".strings", file.getAbsoluteFile().getParentFile());
+			stringFile.deleteOnExit();
+			entryOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			entryOut.write(new byte[HEADER_LENGTH]);
+			stringOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stringFile), 1 << 16));
+		}
+
+		public void add(String uri, String fingerprint, String topic) throws IOException {
+			FingerprintDigest.decode(fingerprint, digest, 0);
+			entryOut.write(digest);
+			entryOut.writeLong(addString(uri));
+			if (withTopics && topic != null) {
+				entryOut.writeLong(addString(topic));
+			} else {
+				entryOut.writeLong(-1);
+			}
+			entryCount++;
+		}
+
+		private long addString(String s) throws IOException {
+			long ref = stringsLength;
+			byte[] b = s.getBytes(utf8);
+			stringOut.writeInt(b.length);
+			stringOut.write(b);
+			stringsLength += 4 + b.length;
+			stringCount++;
+			return ref;
+		}
+
+		public void close() throws IOException {
+			entryOut.close();
+			stringOut.close();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel out = raf.getChannel();
+				long stringsOffset = HEADER_LENGTH + entryCount * ENTRY_LENGTH;
+				FileInputStream in = new FileInputStream(stringFile);
+				try {
+					FileChannel ch = in.getChannel();
+					long pos = 0;
+					while (pos < stringsLength) {
+						pos += ch.transferTo(pos, stringsLength - pos, out.position(stringsOffset + pos));
+					}
+				} finally {
+					in.close();
+				}
+				raf.seek(0);
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(withTopics ? FLAG_TOPICS : 0);
+				raf.writeInt(0);
+				raf.writeLong(entryCount);
+				raf.writeLong(stringCount);
+				raf.writeLong(stringsOffset);
+				raf.writeLong(stringsLength);
+			} finally {
+				raf.close();
+				stringFile.delete();
+			}
+		}
+
+	}
+
+
+	public static class Reader {
+
+		private DataInputStream entryIn, stringIn;
+		private boolean withTopics;
+		private long entryCount, entriesRead, stringPos;
+		private byte[] digest = new byte[FingerprintDigest.LENGTH];
+		private byte[] uriBytes = new byte[256];
+		private int uriLength;
+		private String topic;
+
+		public Reader(File file) throws IOException {
+			entryIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			int magic = entryIn.readInt();
+			int version = entryIn.readInt();
+			if (magic != MAGIC || version != VERSION) {
+				entryIn.close();
+				throw new IOException("Not a fingerprint cache file: " + file);
+			}
+			withTopics = (entryIn.readInt() & FLAG_TOPICS) != 0;
+			entryIn.readInt();
+			entryCount = entryIn.readLong();
+			entryIn.readLong();
+			long stringsOffset = entryIn.readLong();
+			entryIn.skipBytes(HEADER_LENGTH - 40);
+			FileInputStream fin = new FileInputStream(file);
+			fin.getChannel().position(stringsOffset);
+			stringIn = new DataInputStream(new BufferedInputStream(fin, 1 << 16));
+		}
+
+		public long getEntryCount() {
+			return entryCount;
+		}
+
+		public boolean hasTopics() {
+			return withTopics;
+		}
+
+		public boolean next() throws IOException {
+			if (entriesRead == entryCount) return false;
+			entryIn.readFully(digest);
+			long uriRef = entryIn.readLong();
+			long topicRef = entryIn.readLong();
+			checkRef(uriRef);
+			uriLength = stringIn.readInt();
+			if (uriBytes.length < uriLength) uriBytes = new byte[uriLength * 2];
+			stringIn.readFully(uriBytes, 0, uriLength);
+			stringPos += 4 + uriLength;
+			topic = null;
+			if (topicRef >= 0) {
+				checkRef(topicRef);
+				byte[] b = new byte[stringIn.readInt()];
+				stringIn.readFully(b);
+				stringPos += 4 + b.length;
+				topic = new String(b, utf8);
+			}
+			entriesRead++;
+			return true;
+		}
+
+		private void checkRef(long ref) throws IOException {
+			if (ref != stringPos) throw new IOException("Unexpected string reference in fingerprint cache: " + ref);
+		}
+
+		/**
+		 * Returns the digest of the current entry. The array is reused for the next entry.
+		 */
+		public byte[] getDigest() {
+			return digest;
+		}
+
+		public String getFingerprint() {
+			return FingerprintDigest.encode(digest);
+		}
+
+		/**
+		 * Returns the UTF-8 bytes of the URI of the current entry (see getUriLength()). The array is
+		 * reused for the next entry.
+		 */
+		public byte[] getUriBytes() {
+			return uriBytes;
+		}
+
+		public int getUriLength() {
+			return uriLength;
+		}
+
+		public String getUri() {
+			return new String(uriBytes, 0, uriLength, utf8);
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public void close() throws IOException {
+			entryIn.close();
+			stringIn.close();
+		}
+
+	}
+
+}
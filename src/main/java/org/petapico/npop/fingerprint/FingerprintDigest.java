@@ -0,0 +1,67 @@
+package org.petapico.npop.fingerprint;
+
+import java.util.Arrays;
+
+import net.trustyuri.TrustyUriUtils;
+
+/**
+ * Converts between fingerprint strings (the base64 part of an RA artifact code, 43 characters) and
+ * the 32-byte SHA-256 digests they encode.
+ */
+public class FingerprintDigest {
+
+	private FingerprintDigest() {}  // no instances allowed
+
+	public static final int LENGTH = 32;
+	public static final int STRING_LENGTH = 43;
+
+	private static final byte[] decodeTable = new byte[128];
+
+	static {
+		Arrays.fill(decodeTable, (byte) -1);
+		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for (int i = 0; i < chars.length(); i++) {
+			decodeTable[chars.charAt(i)] = (byte) i;
+		}
+	}
+
+	public static byte[] decode(String fingerprint) {
+		byte[] digest = new byte[LENGTH];
+		decode(fingerprint, digest, 0);
+		return digest;
+	}
+
+	public static void decode(String fingerprint, byte[] digest, int offset) {
+		if (fingerprint.length() != STRING_LENGTH) {
+			throw new IllegalArgumentException("Not a fingerprint: " + fingerprint);
+		}
+		int bits = 0;
+		int bitCount = 0;
+		int pos = offset;
+		for (int i = 0; i < STRING_LENGTH; i++) {
+			char c = fingerprint.charAt(i);
+			int v = (c < 128 ? decodeTable[c] : -1);
+			if (v < 0) {
+				throw new IllegalArgumentException("Not a fingerprint: " + fingerprint);
+			}
+			bits = (bits << 6) | v;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				digest[pos++] = (byte) (bits >> bitCount);
+			}
+		}
+	}
+
+	public static String encode(byte[] digest) {
+		return encode(digest, 0);
+	}
+
+	public static String encode(byte[] digest, int offset) {
+		if (offset == 0 && digest.length == LENGTH) {
+			return TrustyUriUtils.getBase64(digest);
+		}
+		return TrustyUriUtils.getBase64(Arrays.copyOfRange(digest, offset, offset + LENGTH));
+	}
+
+}
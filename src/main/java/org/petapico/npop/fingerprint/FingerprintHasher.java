@@ -0,0 +1,402 @@
+package org.petapico.npop.fingerprint;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import net.trustyuri.TrustyUriUtils;
+import net.trustyuri.rdf.RdfHasher;
+import net.trustyuri.rdf.RdfUtils;
+
+/**
+ * Computes fingerprints in the same way as RdfPreprocessor.run followed by
+ * RdfHasher.makeArtifactCode, but without creating statement lists or new statements. Each
+ * statement is encoded right away into a reusable byte array as a record of two parts: a sort
+ * key, whose byte order is the order of net.trustyuri.rdf.StatementComparator (strings as UTF-16
+ * code units), and the bytes that RdfHasher feeds into the digest for the statement. The records
+ * are then sorted by their keys, and the digest parts of the records with distinct keys are fed
+ * into the digest in one pass. Statements with equal keys are equal, so this gives the same
+ * result as the duplicate elimination of RdfHasher.
+ *
+ * Use forCurrentThread() to get an instance; instances are not thread-safe.
+ */
+public class FingerprintHasher {
+
+	private static final ThreadLocal<FingerprintHasher> instances = new ThreadLocal<FingerprintHasher>() {
+
+		@Override
+		protected FingerprintHasher initialValue() {
+			return new FingerprintHasher();
+		}
+
+	};
+
+	public static FingerprintHasher forCurrentThread() {
+		return instances.get();
+	}
+
+	// RdfHasher uses the platform default charset; ASCII characters can be written directly if it
+	// encodes them like ASCII
+	private static final boolean asciiCompatible = isAsciiCompatible(Charset.defaultCharset());
+
+	private static final boolean[] uriChars = new boolean[128];
+
+	static {
+		String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_.!~*'();/?:@&=+$,";
+		for (int i = 0; i < chars.length(); i++) uriChars[chars.charAt(i)] = true;
+	}
+
+	private String artifactCode;
+	private MessageDigest md = RdfHasher.getDigest();
+
+	private byte[] data = new byte[1 << 14];
+	private int dataLength = 0;
+	private int[] recordStart = new int[64];
+	private int[] keyEnd = new int[64];
+	private int[] recordEnd = new int[64];
+	private int recordCount = 0;
+	private int[] order = new int[64];
+	private int[] sortBuffer = new int[64];
+
+	private FingerprintHasher() {
+	}
+
+	/**
+	 * Starts a new fingerprint. Occurrences of the given artifact code in IRIs are replaced by a
+	 * space, as in RdfPreprocessor.
+	 */
+	public FingerprintHasher start(String artifactCode) {
+		this.artifactCode = artifactCode;
+		dataLength = 0;
+		recordCount = 0;
+		return this;
+	}
+
+	public void add(Statement st) {
+		add(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+	}
+
+	public void add(Resource subject, IRI predicate, Value object, Resource context) {
+		if (recordCount == recordStart.length) {
+			int n = recordStart.length * 2;
+			recordStart = Arrays.copyOf(recordStart, n);
+			keyEnd = Arrays.copyOf(keyEnd, n);
+			recordEnd = Arrays.copyOf(recordEnd, n);
+			order = new int[n];
+			sortBuffer = new int[n];
+		}
+		IRI c = (context == null ? null : toIri(context));
+		IRI s = toIri(subject);
+		checkUri(predicate);
+		recordStart[recordCount] = dataLength;
+		if (c != null) writeKey(c.toString(), true);
+		writeKeyEnd();
+		writeKey(s.toString(), true);
+		writeKeyEnd();
+		writeKey(predicate.toString(), true);
+		writeKeyEnd();
+		if (object instanceof Literal) {
+			Literal l = (Literal) object;
+			writeByte(1);
+			writeKey(l.stringValue(), false);
+			writeKeyEnd();
+			if (l.getLanguage().isPresent()) {
+				writeByte(0);
+				writeKey(l.getLanguage().get().toLowerCase(), false);
+			} else {
+				writeByte(1);
+				writeKey(l.getDatatype().toString(), false);
+			}
+			writeKeyEnd();
+		} else {
+			writeByte(0);
+			writeKey(toIri((Resource) object).toString(), true);
+			writeKeyEnd();
+		}
+		keyEnd[recordCount] = dataLength;
+		if (c == null) {
+			writeByte('\n');
+		} else {
+			writeIri(c.toString());
+		}
+		writeIri(s.toString());
+		writeIri(predicate.toString());
+		if (object instanceof Literal) {
+			writeLiteral((Literal) object);
+		} else {
+			writeIri(object.toString());
+		}
+		recordEnd[recordCount] = dataLength;
+		recordCount++;
+	}
+
+	/**
+	 * Returns the fingerprint of the statements added since start(), which is the artifact code
+	 * without the "RA" prefix.
+	 */
+	public String finish() {
+		for (int i = 0; i < recordCount; i++) order[i] = i;
+		sort(0, recordCount);
+		int previous = -1;
+		for (int i = 0; i < recordCount; i++) {
+			int r = order[i];
+			if (previous >= 0 && compareKeys(r, previous) == 0) continue;
+			md.update(data, keyEnd[r], recordEnd[r] - keyEnd[r]);
+			previous = r;
+		}
+		return TrustyUriUtils.getBase64(md.digest());
+	}
+
+	private IRI toIri(Resource r) {
+		// RdfPreprocessor fails in the same cases with a ClassCastException
+		if (!(r instanceof IRI)) throw new RuntimeException("Unexpected blank node encountered");
+		IRI iri = (IRI) r;
+		checkUri(iri);
+		return iri;
+	}
+
+	private static void checkUri(IRI iri) {
+		if (!isValidUri(iri.toString())) RdfUtils.checkUri(iri);
+	}
+
+	/**
+	 * Returns true for strings that java.net.URI surely accepts: ASCII-only absolute URIs without
+	 * IPv6 addresses and with at most one fragment. For other strings, RdfUtils.checkUri has to
+	 * decide.
+	 */
+	static boolean isValidUri(String s) {
+		int n = s.length();
+		if (n == 0 || !isAlpha(s.charAt(0))) return false;
+		int i = 1;
+		while (i < n) {
+			char c = s.charAt(i);
+			if (!isAlpha(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') break;
+			i++;
+		}
+		if (i == n || s.charAt(i) != ':') return false;
+		i++;
+		// no empty scheme-specific part, and no empty authority at the end
+		if (i == n || (i + 2 == n && s.startsWith("//", i))) return false;
+		boolean hasFragment = false;
+		for (; i < n; i++) {
+			char c = s.charAt(i);
+			if (c == '%') {
+				if (i + 2 >= n || !isHex(s.charAt(i + 1)) || !isHex(s.charAt(i + 2))) return false;
+				i += 2;
+			} else if (c == '#') {
+				if (hasFragment) return false;
+				hasFragment = true;
+			} else if (c >= 128 || !uriChars[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAlpha(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isHex(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/**
+	 * Writes the given string as sort key: each char as two bytes (big-endian), with the zero char
+	 * escaped, so that a following writeKeyEnd() sorts before any further char.
+	 */
+	private void writeKey(String s, boolean normalize) {
+		int start = 0;
+		if (normalize) {
+			int i;
+			while ((i = s.indexOf(artifactCode, start)) >= 0) {
+				writeKeyChars(s, start, i);
+				writeKeyChars(" ", 0, 1);
+				start = i + artifactCode.length();
+			}
+		}
+		writeKeyChars(s, start, s.length());
+	}
+
+	private void writeKeyChars(String s, int start, int end) {
+		ensureCapacity((end - start) * 4);
+		byte[] d = data;
+		int p = dataLength;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == 0) {
+				d[p++] = 0;
+				d[p++] = 0;
+				d[p++] = 0;
+				d[p++] = 1;
+			} else {
+				d[p++] = (byte) (c >>> 8);
+				d[p++] = (byte) c;
+			}
+		}
+		dataLength = p;
+	}
+
+	private void writeKeyEnd() {
+		ensureCapacity(4);
+		for (int i = 0; i < 4; i++) data[dataLength++] = 0;
+	}
+
+	/**
+	 * Writes the normalized IRI followed by a newline, as in RdfHasher.
+	 */
+	private void writeIri(String s) {
+		if (!asciiCompatible || !isAscii(s)) {
+			writeBytes((RdfUtils.normalize(SimpleValueFactory.getInstance().createIRI(s), artifactCode) + "\n").getBytes());
+			return;
+		}
+		int start = 0;
+		int i;
+		while ((i = s.indexOf(artifactCode, start)) >= 0) {
+			writeAscii(s, start, i);
+			writeByte(' ');
+			start = i + artifactCode.length();
+		}
+		writeAscii(s, start, s.length());
+		writeByte('\n');
+	}
+
+	/**
+	 * Writes the literal as in RdfHasher: "@lang label" or "^datatype label", with backslashes and
+	 * newlines in the label escaped, followed by a newline.
+	 */
+	private void writeLiteral(Literal l) {
+		String label = l.stringValue();
+		String prefix;
+		if (l.getLanguage().isPresent()) {
+			prefix = l.getLanguage().get();
+			if (!isLowerCaseAscii(prefix)) prefix = prefix.toLowerCase();
+			writeByte('@');
+		} else {
+			prefix = l.getDatatype().stringValue();
+			writeByte('^');
+		}
+		if (!asciiCompatible || !isAscii(prefix) || !isAscii(label)) {
+			dataLength--;
+			String escaped = label.replace("\\", "\\\\").replace("\n", "\\n");
+			writeBytes(((l.getLanguage().isPresent() ? "@" : "^") + prefix + " " + escaped + "\n").getBytes());
+			return;
+		}
+		writeAscii(prefix, 0, prefix.length());
+		writeByte(' ');
+		ensureCapacity(label.length() * 2 + 1);
+		byte[] d = data;
+		int p = dataLength;
+		for (int i = 0; i < label.length(); i++) {
+			char c = label.charAt(i);
+			if (c == '\\') {
+				d[p++] = '\\';
+				d[p++] = '\\';
+			} else if (c == '\n') {
+				d[p++] = '\\';
+				d[p++] = 'n';
+			} else {
+				d[p++] = (byte) c;
+			}
+		}
+		d[p++] = '\n';
+		dataLength = p;
+	}
+
+	private void writeAscii(String s, int start, int end) {
+		ensureCapacity(end - start);
+		byte[] d = data;
+		int p = dataLength;
+		for (int i = start; i < end; i++) {
+			d[p++] = (byte) s.charAt(i);
+		}
+		dataLength = p;
+	}
+
+	private void writeBytes(byte[] b) {
+		ensureCapacity(b.length);
+		System.arraycopy(b, 0, data, dataLength, b.length);
+		dataLength += b.length;
+	}
+
+	private void writeByte(int b) {
+		ensureCapacity(1);
+		data[dataLength++] = (byte) b;
+	}
+
+	private void ensureCapacity(int n) {
+		if (dataLength + n > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + n));
+		}
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 128) return false;
+		}
+		return true;
+	}
+
+	private static boolean isLowerCaseAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 128 || (c >= 'A' && c <= 'Z')) return false;
+		}
+		return true;
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		byte[] b = new byte[128];
+		for (int i = 0; i < 128; i++) b[i] = (byte) i;
+		return Arrays.equals(new String(b, StandardCharsets.US_ASCII).getBytes(charset), b);
+	}
+
+	/**
+	 * Merge sort of order[from..to) by record key.
+	 */
+	private void sort(int from, int to) {
+		if (to - from <= 8) {
+			for (int i = from + 1; i < to; i++) {
+				int r = order[i];
+				int j = i - 1;
+				while (j >= from && compareKeys(order[j], r) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = r;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(from, mid);
+		sort(mid, to);
+		if (compareKeys(order[mid - 1], order[mid]) <= 0) return;
+		System.arraycopy(order, from, sortBuffer, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid && j < to) {
+			order[k++] = (compareKeys(sortBuffer[j], sortBuffer[i]) < 0 ? sortBuffer[j++] : sortBuffer[i++]);
+		}
+		while (i < mid) order[k++] = sortBuffer[i++];
+		while (j < to) order[k++] = sortBuffer[j++];
+	}
+
+	private int compareKeys(int r1, int r2) {
+		byte[] d = data;
+		int p1 = recordStart[r1], e1 = keyEnd[r1];
+		int p2 = recordStart[r2], e2 = keyEnd[r2];
+		while (p1 < e1 && p2 < e2) {
+			int c = (d[p1++] & 0xff) - (d[p2++] & 0xff);
+			if (c != 0) return c;
+		}
+		return (e1 - p1) - (e2 - p2);
+	}
+
+}
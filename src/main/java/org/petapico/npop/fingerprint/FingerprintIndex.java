@@ -0,0 +1,636 @@
+package org.petapico.npop.fingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.petapico.npop.io.ReadAheadInputStream;
+
+/**
+ * Sorted on-disk fingerprint index (*.fpi), which is memory-mapped and searched in place, so lookups
+ * need only a small fixed heap. Layout:
+ *
+ * <pre>
+ * header (64 bytes):  magic "NPFI", version, flags, duplicate topic count,
+ *                     entry count (incl. duplicates), record count, string region offset, string region length,
+ *                     topic table offset, topic record count
+ * records:            record count x (32-byte fingerprint digest, long URI ref, long topic ref), sorted by digest
+ * string region:      entry count x (int length, UTF-8 URI, int length or -1, UTF-8 topic), in cache order
+ * topic table:        topic record count x (long topic hash, long URI ref, long topic ref), sorted by hash
+ * </pre>
+ *
+ * For duplicate fingerprints, the record of the last cache entry is kept, like in an in-memory map.
+ * The topic table has a record for each cache entry with a topic, so topics can be looked up
+ * without loading them; it is only present if the topic table flag is set (files written by
+ * earlier versions don't have it). The duplicate topic count is the number of entries whose topic
+ * already appeared in an earlier entry.
+ */
+public class FingerprintIndex implements FingerprintLookup {
+
+	public static final String FILE_EXTENSION = ".fpi";
+
+	private static final int MAGIC = 0x4e504649;  // "NPFI"
+	private static final int VERSION = 1;
+	private static final int FLAG_TOPICS = 1;
+	private static final int FLAG_TOPIC_TABLE = 2;
+	private static final int HEADER_LENGTH = 64;
+	private static final int RECORD_LENGTH = FingerprintDigest.LENGTH + 16;
+	private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_LENGTH;
+	private static final int TOPIC_RECORD_LENGTH = 24;
+	private static final int TOPIC_RECORDS_PER_SEGMENT = Integer.MAX_VALUE / TOPIC_RECORD_LENGTH;
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	public static boolean isIndexFile(File file) {
+		return file.getName().endsWith(FILE_EXTENSION);
+	}
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer[] segments;
+	private MappedByteBuffer[] topicSegments;
+	private boolean withTopics, withTopicTable;
+	private long entryCount, recordCount, stringsOffset, stringsLength;
+	private long topicTableOffset, topicRecordCount, duplicateTopicCount;
+
+	public FingerprintIndex(File file) throws IOException {
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		readFully(header, 0);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+			raf.close();
+			throw new IOException("Not a fingerprint index file: " + file);
+		}
+		withTopics = (header.getInt(8) & FLAG_TOPICS) != 0;
+		withTopicTable = (header.getInt(8) & FLAG_TOPIC_TABLE) != 0;
+		duplicateTopicCount = header.getInt(12);
+		entryCount = header.getLong(16);
+		recordCount = header.getLong(24);
+		stringsOffset = header.getLong(32);
+		stringsLength = header.getLong(40);
+		segments = map(HEADER_LENGTH, recordCount, RECORD_LENGTH, RECORDS_PER_SEGMENT);
+		if (withTopicTable) {
+			topicTableOffset = header.getLong(48);
+			topicRecordCount = header.getLong(56);
+			topicSegments = map(topicTableOffset, topicRecordCount, TOPIC_RECORD_LENGTH, TOPIC_RECORDS_PER_SEGMENT);
+		}
+	}
+
+	private MappedByteBuffer[] map(long offset, long count, int length, int perSegment) throws IOException {
+		int segmentCount = (int) ((count + perSegment - 1) / perSegment);
+		MappedByteBuffer[] s = new MappedByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long first = (long) i * perSegment;
+			long n = Math.min(perSegment, count - first);
+			s[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * length, n * length);
+		}
+		return s;
+	}
+
+	public boolean hasTopics() {
+		return withTopics;
+	}
+
+	/**
+	 * Returns true if topics can be looked up with findTopic().
+	 */
+	public boolean hasTopicTable() {
+		return withTopicTable;
+	}
+
+	/**
+	 * Returns the number of cache entries whose topic already appeared in an earlier entry.
+	 */
+	public long getDuplicateTopicCount() {
+		return duplicateTopicCount;
+	}
+
+	/**
+	 * Returns the position of the topic record of the first cache entry with the given topic in
+	 * the topic table, or -1 if no entry has this topic.
+	 */
+	public long findTopic(String topic) {
+		if (topic == null) return -1;
+		byte[] t = topic.getBytes(utf8);
+		long h = topicHash(t);
+		long lo = 0;
+		long hi = topicRecordCount;
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (Long.compareUnsigned(topicRecordLong(mid, 0), h) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		try {
+			for (long i = lo; i < topicRecordCount && topicRecordLong(i, 0) == h; i++) {
+				if (Arrays.equals(readBytes(topicRecordLong(i, 16)), t)) return i;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if more than one cache entry has the topic of the given topic record.
+	 */
+	public boolean isDuplicateTopic(long position) {
+		long h = topicRecordLong(position, 0);
+		try {
+			byte[] t = readBytes(topicRecordLong(position, 16));
+			for (long i = position + 1; i < topicRecordCount && topicRecordLong(i, 0) == h; i++) {
+				if (Arrays.equals(readBytes(topicRecordLong(i, 16)), t)) return true;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the URI of the cache entry of the given topic record.
+	 */
+	public String getTopicUri(long position) {
+		try {
+			return readString(topicRecordLong(position, 8));
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Returns the number of cache entries the index was built from, including duplicates.
+	 */
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	@Override
+	public int size() {
+		return (int) recordCount;
+	}
+
+	@Override
+	public String get(String fingerprint) {
+		byte[] digest = FingerprintDigest.decode(fingerprint);
+		long i = find(digest);
+		if (i < 0) return null;
+		try {
+			return readString(recordLong(i, 32));
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private long find(byte[] digest) {
+		long k0 = readLong(digest, 0);
+		long k1 = readLong(digest, 8);
+		long k2 = readLong(digest, 16);
+		long k3 = readLong(digest, 24);
+		long lo = 0;
+		long hi = recordCount - 1;
+		boolean interpolate = true;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			if (interpolate && hi - lo > 16) {
+				// Digests are uniformly distributed, so interpolation on the first 8 bytes usually
+				// lands close; alternating with bisection bounds the worst case.
+				long loKey = recordLong(lo, 0);
+				long hiKey = recordLong(hi, 0);
+				if (Long.compareUnsigned(loKey, k0) < 0 && Long.compareUnsigned(k0, hiKey) < 0) {
+					double f = unsignedToDouble(k0 - loKey) / unsignedToDouble(hiKey - loKey);
+					mid = lo + (long) (f * (hi - lo));
+				}
+			}
+			interpolate = !interpolate;
+			int c = Long.compareUnsigned(recordLong(mid, 0), k0);
+			if (c == 0) c = Long.compareUnsigned(recordLong(mid, 8), k1);
+			if (c == 0) c = Long.compareUnsigned(recordLong(mid, 16), k2);
+			if (c == 0) c = Long.compareUnsigned(recordLong(mid, 24), k3);
+			if (c == 0) return mid;
+			if (c < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	private long recordLong(long record, int offset) {
+		return segments[(int) (record / RECORDS_PER_SEGMENT)].getLong((int) (record % RECORDS_PER_SEGMENT) * RECORD_LENGTH + offset);
+	}
+
+	private long topicRecordLong(long record, int offset) {
+		return topicSegments[(int) (record / TOPIC_RECORDS_PER_SEGMENT)].getLong((int) (record % TOPIC_RECORDS_PER_SEGMENT) * TOPIC_RECORD_LENGTH + offset);
+	}
+
+	private String readString(long ref) throws IOException {
+		byte[] b = readBytes(ref);
+		return b == null ? null : new String(b, utf8);
+	}
+
+	private byte[] readBytes(long ref) throws IOException {
+		ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+		readFully(lengthBuffer, stringsOffset + ref);
+		int length = lengthBuffer.getInt(0);
+		if (length < 0) return null;
+		ByteBuffer b = ByteBuffer.allocate(length);
+		readFully(b, stringsOffset + ref + 4);
+		return b.array();
+	}
+
+	private void readFully(ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0) {
+				throw new IOException("Unexpected end of fingerprint index file: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the URIs and topics of all cache entries in their original order.
+	 */
+	public EntryReader readEntries() throws IOException {
+		return new EntryReader();
+	}
+
+	public void close() throws IOException {
+		segments = null;
+		topicSegments = null;
+		raf.close();
+	}
+
+
+	public class EntryReader {
+
+		private DataInputStream in;
+		private long pos = 0;
+		private String uri, topic;
+
+		private EntryReader() throws IOException {
+			FileInputStream fin = new FileInputStream(file);
+			fin.getChannel().position(stringsOffset);
+			in = new DataInputStream(new BufferedInputStream(fin, 1 << 16));
+		}
+
+		public boolean next() throws IOException {
+			if (pos >= stringsLength) return false;
+			uri = readNext();
+			topic = readNext();
+			return true;
+		}
+
+		private String readNext() throws IOException {
+			int length = in.readInt();
+			pos += 4;
+			if (length < 0) return null;
+			byte[] b = new byte[length];
+			in.readFully(b);
+			pos += length;
+			return new String(b, utf8);
+		}
+
+		public String getUri() {
+			return uri;
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+
+	}
+
+
+	/**
+	 * Builds an index file from a text (*.txt, *.txt.gz) or binary (*.fpc) fingerprint cache file.
+	 * The digests, string references and topic hashes are sorted in memory (about 64 bytes per
+	 * entry).
+	 */
+	public static void build(File cacheFile, File indexFile) throws IOException {
+		Builder builder = new Builder(indexFile);
+		try {
+			if (FingerprintCache.isCacheFile(cacheFile)) {
+				FingerprintCache.Reader reader = new FingerprintCache.Reader(cacheFile);
+				try {
+					while (reader.next()) {
+						builder.add(reader.getDigest(), reader.getUriBytes(), reader.getUriLength(), reader.getTopic());
+					}
+				} finally {
+					reader.close();
+				}
+			} else {
+				BufferedReader br;
+				if (cacheFile.getName().endsWith(".gz")) {
+					br = new BufferedReader(new InputStreamReader(ReadAheadInputStream.openGzip(cacheFile), utf8));
+				} else {
+					br = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), utf8));
+				}
+				try {
+					byte[] digest = new byte[FingerprintDigest.LENGTH];
+					String line;
+					while ((line = br.readLine()) != null) {
+						line = line.trim();
+						if (line.isEmpty()) continue;
+						String[] columns = line.split(" ");
+						FingerprintDigest.decode(columns[1], digest, 0);
+						byte[] uri = columns[0].getBytes(utf8);
+						builder.add(digest, uri, uri.length, columns.length > 2 ? columns[2] : null);
+					}
+				} finally {
+					br.close();
+				}
+			}
+			builder.finish();
+		} catch (IOException ex) {
+			builder.abort();
+			throw ex;
+		} catch (RuntimeException ex) {
+			builder.abort();
+			throw ex;
+		}
+	}
+
+
+	private static class Builder {
+
+		private File indexFile, stringFile;
+		private DataOutputStream stringOut;
+		private long[] digests = new long[4 * 1024];
+		private long[] uriRefs = new long[1024];
+		private long[] topicRefs = new long[1024];
+		private long[] topicHashes = new long[1024];
+		private int count = 0;
+		private long stringsLength = 0;
+		private boolean withTopics = false;
+
+		Builder(File indexFile) throws IOException {
+			this.indexFile = indexFile;
+			stringFile = File.createTempFile("npop-", ".strings", indexFile.getAbsoluteFile().getParentFile());
+			stringFile.deleteOnExit();
+			stringOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stringFile), 1 << 16));
+		}
+
+		void add(byte[] digest, byte[] uri, int uriLength, String topic) throws IOException {
+			if (count == uriRefs.length) {
+				int n = (int) Math.min(Integer.MAX_VALUE / 4, count * 2L);
+				if (n == count) throw new IllegalStateException("Too many entries for fingerprint index");
+				digests = Arrays.copyOf(digests, n * 4);
+				uriRefs = Arrays.copyOf(uriRefs, n);
+				topicRefs = Arrays.copyOf(topicRefs, n);
+				topicHashes = Arrays.copyOf(topicHashes, n);
+			}
+			for (int i = 0; i < 4; i++) {
+				digests[count * 4 + i] = readLong(digest, i * 8);
+			}
+			uriRefs[count] = stringsLength;
+			stringOut.writeInt(uriLength);
+			stringOut.write(uri, 0, uriLength);
+			stringsLength += 4 + uriLength;
+			if (topic == null) {
+				topicRefs[count] = -1;
+				stringOut.writeInt(-1);
+				stringsLength += 4;
+			} else {
+				withTopics = true;
+				topicRefs[count] = stringsLength;
+				byte[] t = topic.getBytes(utf8);
+				topicHashes[count] = topicHash(t);
+				stringOut.writeInt(t.length);
+				stringOut.write(t);
+				stringsLength += 4 + t.length;
+			}
+			count++;
+		}
+
+		void finish() throws IOException {
+			stringOut.close();
+			int[] order = new int[count];
+			for (int i = 0; i < count; i++) order[i] = i;
+			sort(order, 0, count - 1);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+			long recordCount = 0;
+			long topicTableOffset = 0;
+			long topicRecordCount = 0;
+			int duplicateTopicCount = 0;
+			try {
+				out.write(new byte[HEADER_LENGTH]);
+				for (int i = 0; i < count; i++) {
+					int e = order[i];
+					// keep only the last of equal digests (order is stable by entry number):
+					if (i + 1 < count && compare(e, order[i + 1]) == 0) continue;
+					for (int j = 0; j < 4; j++) {
+						out.writeLong(digests[e * 4 + j]);
+					}
+					out.writeLong(uriRefs[e]);
+					out.writeLong(topicRefs[e]);
+					recordCount++;
+				}
+				FileInputStream in = new FileInputStream(stringFile);
+				try {
+					byte[] buffer = new byte[1 << 16];
+					int l;
+					while ((l = in.read(buffer)) > 0) {
+						out.write(buffer, 0, l);
+					}
+				} finally {
+					in.close();
+				}
+				if (withTopics) {
+					topicTableOffset = HEADER_LENGTH + recordCount * RECORD_LENGTH + stringsLength;
+					int n = 0;
+					for (int i = 0; i < count; i++) {
+						if (topicRefs[i] >= 0) order[n++] = i;
+					}
+					sortByTopicHash(order, n);
+					RandomAccessFile strings = new RandomAccessFile(stringFile, "r");
+					try {
+						// distinct topics among the entries with the current hash
+						List<byte[]> runTopics = new ArrayList<>();
+						for (int i = 0; i < n; i++) {
+							int e = order[i];
+							out.writeLong(topicHashes[e]);
+							out.writeLong(uriRefs[e]);
+							out.writeLong(topicRefs[e]);
+							boolean sameHash = (i > 0 && topicHashes[order[i - 1]] == topicHashes[e]);
+							boolean nextSameHash = (i + 1 < n && topicHashes[order[i + 1]] == topicHashes[e]);
+							if (!sameHash) runTopics.clear();
+							if (!sameHash && !nextSameHash) continue;
+							byte[] t = readTopic(strings, topicRefs[e]);
+							if (contains(runTopics, t)) {
+								duplicateTopicCount++;
+							} else {
+								runTopics.add(t);
+							}
+						}
+					} finally {
+						strings.close();
+					}
+					topicRecordCount = n;
+				}
+			} finally {
+				out.close();
+				stringFile.delete();
+			}
+			RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+			try {
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(withTopics ? FLAG_TOPICS | FLAG_TOPIC_TABLE : 0);
+				raf.writeInt(duplicateTopicCount);
+				raf.writeLong(count);
+				raf.writeLong(recordCount);
+				raf.writeLong(HEADER_LENGTH + recordCount * RECORD_LENGTH);
+				raf.writeLong(stringsLength);
+				raf.writeLong(topicTableOffset);
+				raf.writeLong(topicRecordCount);
+			} finally {
+				raf.close();
+			}
+		}
+
+		void abort() {
+			try {
+				stringOut.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+			stringFile.delete();
+		}
+
+		private int compare(int a, int b) {
+			for (int j = 0; j < 4; j++) {
+				int c = Long.compareUnsigned(digests[a * 4 + j], digests[b * 4 + j]);
+				if (c != 0) return c;
+			}
+			return 0;
+		}
+
+		private int compareWithOrder(int a, int b) {
+			int c = compare(a, b);
+			if (c != 0) return c;
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+
+		private void sort(int[] order, int lo, int hi) {
+			while (hi - lo > 16) {
+				int mid = (lo + hi) >>> 1;
+				if (compareWithOrder(order[mid], order[lo]) < 0) swap(order, mid, lo);
+				if (compareWithOrder(order[hi], order[lo]) < 0) swap(order, hi, lo);
+				if (compareWithOrder(order[hi], order[mid]) < 0) swap(order, hi, mid);
+				int pivot = order[mid];
+				int i = lo;
+				int j = hi;
+				while (i <= j) {
+					while (compareWithOrder(order[i], pivot) < 0) i++;
+					while (compareWithOrder(order[j], pivot) > 0) j--;
+					if (i <= j) swap(order, i++, j--);
+				}
+				// recurse into the smaller part to bound the stack depth:
+				if (j - lo < hi - i) {
+					sort(order, lo, j);
+					lo = i;
+				} else {
+					sort(order, i, hi);
+					hi = j;
+				}
+			}
+			for (int i = lo + 1; i <= hi; i++) {
+				int v = order[i];
+				int j = i - 1;
+				while (j >= lo && compareWithOrder(order[j], v) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = v;
+			}
+		}
+
+		/**
+		 * Sorts order[0..n) by topic hash; entries with equal hashes stay in entry order.
+		 */
+		private void sortByTopicHash(int[] order, int n) {
+			int[] buffer = new int[n];
+			for (int width = 1; width < n; width *= 2) {
+				for (int lo = 0; lo < n - width; lo += 2 * width) {
+					int mid = lo + width;
+					int hi = Math.min(lo + 2 * width, n);
+					if (Long.compareUnsigned(topicHashes[order[mid - 1]], topicHashes[order[mid]]) <= 0) continue;
+					System.arraycopy(order, lo, buffer, lo, hi - lo);
+					int i = lo, j = mid, k = lo;
+					while (i < mid && j < hi) {
+						order[k++] = (Long.compareUnsigned(topicHashes[buffer[j]], topicHashes[buffer[i]]) < 0 ? buffer[j++] : buffer[i++]);
+					}
+					while (i < mid) order[k++] = buffer[i++];
+					while (j < hi) order[k++] = buffer[j++];
+				}
+			}
+		}
+
+		private static boolean contains(List<byte[]> topics, byte[] t) {
+			for (byte[] x : topics) {
+				if (Arrays.equals(x, t)) return true;
+			}
+			return false;
+		}
+
+		private static byte[] readTopic(RandomAccessFile strings, long ref) throws IOException {
+			strings.seek(ref);
+			byte[] b = new byte[strings.readInt()];
+			strings.readFully(b);
+			return b;
+		}
+
+		private static void swap(int[] a, int i, int j) {
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+
+	}
+
+	private static long topicHash(byte[] topic) {
+		long h = 1125899906842597L;
+		for (byte b : topic) {
+			h = 31 * h + b;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static long readLong(byte[] b, int off) {
+		return ByteBuffer.wrap(b, off, 8).getLong();
+	}
+
+	private static double unsignedToDouble(long v) {
+		double d = (double) (v >>> 1) * 2.0;
+		return d + (v & 1);
+	}
+
+}
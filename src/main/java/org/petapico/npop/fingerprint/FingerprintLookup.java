@@ -0,0 +1,12 @@
+package org.petapico.npop.fingerprint;
+
+public interface FingerprintLookup {
+
+	/**
+	 * Returns the URI of the nanopub with the given fingerprint, or null if there is none.
+	 */
+	public String get(String fingerprint);
+
+	public int size();
+
+}
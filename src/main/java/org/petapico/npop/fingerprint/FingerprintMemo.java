@@ -0,0 +1,215 @@
+package org.petapico.npop.fingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.petapico.npop.util.DigestMap;
+
+/**
+ * Persistent memo of computed fingerprints, so that nanopubs that have been fingerprinted before
+ * with the same handler settings don't need to be hashed again. Nanopub URIs are trusty URIs, so
+ * their artifact code stands for their content; entries are keyed by the SHA-256 hash of a
+ * handler key (handler class and options) and the artifact code. Note that the content of the
+ * nanopubs is not checked against their artifact codes.
+ *
+ * The memo file is an append-only log of records (32-byte key, 32-byte fingerprint digest) after
+ * a 16-byte header (magic "NPFM", version, reserved). On opening, the log is read into an
+ * in-memory index, and new fingerprints are appended to it. A truncated record at the end (e.g.
+ * after a crash) is dropped. If there are more than the given maximum number of entries on
+ * close(), the log is rewritten with only the most recently used ones: entries that were not
+ * looked up in the current run are evicted first, oldest first.
+ *
+ * get() and put() can be called from several threads; the file is locked, so it cannot be used by
+ * several processes at the same time.
+ */
+public class FingerprintMemo {
+
+	private static final int MAGIC = 0x4e50464d;  // "NPFM"
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 16;
+	private static final int KEY_LENGTH = DigestMap.KEY_LENGTH;
+	private static final int RECORD_LENGTH = KEY_LENGTH + FingerprintDigest.LENGTH;
+
+	private final ThreadLocal<MessageDigest> keyDigests = new ThreadLocal<MessageDigest>() {
+
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+	};
+
+	private File file;
+	private byte[] handlerKey;
+	private long maxEntries;
+	private DigestMap index = new DigestMap();
+	// fingerprint digests by entry (the value of the entry in the index)
+	private byte[] fingerprints = new byte[FingerprintDigest.LENGTH * 1024];
+	private int loadedCount;
+	private BitSet used = new BitSet();
+	private FileOutputStream fileOut;
+	private FileLock lock;
+	private DataOutputStream out;
+
+	public FingerprintMemo(File file, String handlerKey, long maxEntries) throws IOException {
+		if (maxEntries < 1) throw new IllegalArgumentException("Maximum number of memo entries must be positive: " + maxEntries);
+		this.file = file;
+		this.handlerKey = (handlerKey + "\n").getBytes(StandardCharsets.UTF_8);
+		this.maxEntries = maxEntries;
+		fileOut = new FileOutputStream(file, true);
+		lock = fileOut.getChannel().tryLock();
+		if (lock == null) {
+			fileOut.close();
+			throw new IOException("Memo file is used by another process: " + file);
+		}
+		long length = fileOut.getChannel().size();
+		if (length == 0) {
+			DataOutputStream headerOut = new DataOutputStream(fileOut);
+			headerOut.writeInt(MAGIC);
+			headerOut.writeInt(VERSION);
+			headerOut.writeLong(0);
+			headerOut.flush();
+		} else {
+			load(length);
+		}
+		out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+	}
+
+	private void load(long length) throws IOException {
+		long recordCount;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (length < HEADER_LENGTH || in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a fingerprint memo file: " + file);
+			}
+			in.readLong();
+			recordCount = (length - HEADER_LENGTH) / RECORD_LENGTH;
+			byte[] record = new byte[RECORD_LENGTH];
+			for (long i = 0; i < recordCount; i++) {
+				in.readFully(record);
+				add(record, 0, record, KEY_LENGTH);
+			}
+		} finally {
+			in.close();
+		}
+		long validLength = HEADER_LENGTH + recordCount * RECORD_LENGTH;
+		if (length != validLength) {
+			fileOut.getChannel().truncate(validLength);
+		}
+		loadedCount = index.size();
+	}
+
+	/**
+	 * Returns the fingerprint for the nanopub with the given artifact code, or null if it is not
+	 * in the memo.
+	 */
+	public String get(String artifactCode) {
+		byte[] key = getKey(artifactCode);
+		synchronized (this) {
+			long e = index.get(key);
+			if (e < 0) return null;
+			used.set((int) e);
+			return FingerprintDigest.encode(fingerprints, (int) e * FingerprintDigest.LENGTH);
+		}
+	}
+
+	public void put(String artifactCode, String fingerprint) throws IOException {
+		byte[] key = getKey(artifactCode);
+		byte[] digest = FingerprintDigest.decode(fingerprint);
+		synchronized (this) {
+			if (add(key, 0, digest, 0)) {
+				out.write(key);
+				out.write(digest);
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	private boolean add(byte[] key, int keyOffset, byte[] digest, int digestOffset) {
+		int e = index.size();
+		long previous = index.put(key, keyOffset, e);
+		if (previous >= 0) {
+			// only possible in a damaged log; the first entry is kept
+			index.put(key, keyOffset, previous);
+			return false;
+		}
+		if ((e + 1) * FingerprintDigest.LENGTH > fingerprints.length) {
+			fingerprints = Arrays.copyOf(fingerprints, fingerprints.length * 2);
+		}
+		System.arraycopy(digest, digestOffset, fingerprints, e * FingerprintDigest.LENGTH, FingerprintDigest.LENGTH);
+		return true;
+	}
+
+	private byte[] getKey(String artifactCode) {
+		MessageDigest md = keyDigests.get();
+		md.update(handlerKey);
+		md.update(artifactCode.getBytes(StandardCharsets.US_ASCII));
+		return md.digest();
+	}
+
+	public synchronized void close() throws IOException {
+		if (out == null) return;
+		out.flush();
+		int size = index.size();
+		if (size <= maxEntries) {
+			lock.release();
+			out.close();
+			out = null;
+			return;
+		}
+		// keep order: old unused entries, old used entries, new entries
+		long evict = size - maxEntries;
+		File tempFile = File.createTempFile("npop-", ".memo", file.getAbsoluteFile().getParentFile());
+		try {
+			DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+			try {
+				tempOut.writeInt(MAGIC);
+				tempOut.writeInt(VERSION);
+				tempOut.writeLong(0);
+				byte[] key = new byte[KEY_LENGTH];
+				for (int pass = 0; pass < 3; pass++) {
+					for (int e = (pass == 2 ? loadedCount : 0); e < (pass == 2 ? size : loadedCount); e++) {
+						if (pass < 2 && used.get(e) != (pass == 1)) continue;
+						if (evict > 0) {
+							evict--;
+							continue;
+						}
+						index.getKey(e, key, 0);
+						tempOut.write(key);
+						tempOut.write(fingerprints, e * FingerprintDigest.LENGTH, FingerprintDigest.LENGTH);
+					}
+				}
+			} finally {
+				tempOut.close();
+			}
+			lock.release();
+			out.close();
+			out = null;
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.petapico.npop.fingerprint;
+
+import org.petapico.npop.util.DigestMap;
+import org.petapico.npop.util.StringStore;
+
+/**
+ * Compact in-memory table from fingerprints to nanopub URIs. Fingerprints are stored as 32-byte
+ * digests and URIs as UTF-8 bytes, so no String objects are kept per entry.
+ */
+public class FingerprintTable implements FingerprintLookup {
+
+	private DigestMap map;
+	private StringStore uris = new StringStore();
+
+	public FingerprintTable() {
+		map = new DigestMap();
+	}
+
+	public FingerprintTable(int expectedSize) {
+		map = new DigestMap(expectedSize);
+	}
+
+	public void put(String fingerprint, String uri) {
+		map.put(FingerprintDigest.decode(fingerprint), 0, uris.add(uri));
+	}
+
+	public void put(byte[] digest, int offset, byte[] uri, int uriOffset, int uriLength) {
+		map.put(digest, offset, uris.add(uri, uriOffset, uriLength));
+	}
+
+	@Override
+	public String get(String fingerprint) {
+		return get(FingerprintDigest.decode(fingerprint), 0);
+	}
+
+	public String get(byte[] digest, int offset) {
+		long ref = map.get(digest, offset);
+		if (ref < 0) return null;
+		return uris.get(ref);
+	}
+
+	public boolean containsKey(String fingerprint) {
+		return map.get(FingerprintDigest.decode(fingerprint), 0) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	public long getMemoryUsage() {
+		return map.getMemoryUsage() + uris.getMemoryUsage();
+	}
+
+}
@@ -0,0 +1,271 @@
+package org.petapico.npop.fingerprint;
+
+import static org.nanopub.SimpleTimestampPattern.isCreationTimeProperty;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.nanopub.Nanopub;
+import org.petapico.npop.filter.TermMatcher;
+import org.petapico.npop.io.NanopubGraph;
+import org.petapico.npop.util.RewriteRules;
+
+import net.trustyuri.TrustyUriUtils;
+
+/**
+ * Fingerprint handler that is configured by a profile in properties format, instead of being
+ * hard-coded for a dataset. The built-in profiles default, disgenet and wikipathways give the same
+ * fingerprints as DefaultFingerprints, DisgenetFingerprints and WikipathwaysFingerprints. The
+ * profile keys are:
+ *
+ *   graphs                  graphs to include: head, assertion, provenance, pubinfo (default: all)
+ *   graph-placeholders      replace the graph URIs by placeholders (default: false)
+ *   drop-creation-time      drop the creation time of the nanopub in the pubinfo (default: true)
+ *   drop-supersedes         drop the supersedes link of the nanopub in the pubinfo (default: true)
+ *   drop-predicates         drop statements with these predicates
+ *   timestamp-predicates    replace the object of statements with these predicates by the
+ *                           timestamp placeholder, and the predicate by the first of them
+ *   assertion-placeholder   replace the assertion URI in subject position by its placeholder
+ *   placeholder             an IRI followed by terms (exact, or prefix ending in *): matching
+ *                           IRIs are replaced by the given IRI
+ *   subject-placeholder     the same, but only in subject position
+ *   iri-rule.1, .2, ...     rewrite rules (see RewriteRules) applied to all IRIs, only the first
+ *                           matching one per IRI
+ *
+ * The keys from drop-predicates to subject-placeholder apply to all graphs, or only to one graph
+ * if prefixed with its name (e.g. "provenance.timestamp-predicates"). Several placeholder keys
+ * can be given with different suffixes (e.g. "placeholder.gene"). Values are separated by
+ * whitespace.
+ *
+ * The profile is compiled into per-graph settings, and the statements are normalized in a single
+ * pass over the graphs and passed on to FingerprintHasher, without creating new statements.
+ */
+public class ProfileFingerprints implements FingerprintHandler {
+
+	private static final String BUILT_IN_PATH = "/org/petapico/npop/fingerprint/profiles/";
+
+	private static ValueFactory vf = SimpleValueFactory.getInstance();
+
+	public static Properties loadProfile(String nameOrFile) throws IOException {
+		InputStream in;
+		File file = new File(nameOrFile);
+		if (file.isFile()) {
+			in = new FileInputStream(file);
+		} else {
+			in = ProfileFingerprints.class.getResourceAsStream(BUILT_IN_PATH + nameOrFile + ".properties");
+			if (in == null) throw new IllegalArgumentException("No profile file or built-in profile: " + nameOrFile);
+		}
+		try {
+			Properties profile = new Properties();
+			profile.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+			return profile;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class Placeholder {
+
+		IRI placeholder;
+		TermMatcher matcher = new TermMatcher();
+		boolean subjectOnly;
+
+	}
+
+	private static class GraphSettings {
+
+		boolean included = true;
+		IRI placeholder;
+		boolean dropCreationTime, dropSupersedes;
+		Set<IRI> dropPredicates = new HashSet<>();
+		Set<IRI> timestampPredicates = new HashSet<>();
+		IRI timestampPredicate;
+		boolean assertionPlaceholder;
+		List<Placeholder> placeholders = new ArrayList<>();
+		// true if statements are passed on unchanged, apart from the dropped ones
+		boolean unchanged;
+
+	}
+
+	private GraphSettings[] graphSettings = new GraphSettings[NanopubGraph.values().length];
+	private RewriteRules iriRules = new RewriteRules();
+
+	public ProfileFingerprints(Properties profile) {
+		for (NanopubGraph g : NanopubGraph.values()) {
+			graphSettings[g.ordinal()] = new GraphSettings();
+		}
+		String graphs = profile.getProperty("graphs");
+		if (graphs != null) {
+			for (GraphSettings s : graphSettings) s.included = false;
+			for (String g : split(graphs)) {
+				graphSettings[getGraph(g).ordinal()].included = true;
+			}
+		}
+		if (Boolean.parseBoolean(profile.getProperty("graph-placeholders", "false"))) {
+			graphSettings[NanopubGraph.HEAD.ordinal()].placeholder = headUriPlaceholder;
+			graphSettings[NanopubGraph.ASSERTION.ordinal()].placeholder = assertionUriPlaceholder;
+			graphSettings[NanopubGraph.PROVENANCE.ordinal()].placeholder = provUriPlaceholder;
+			graphSettings[NanopubGraph.PUBINFO.ordinal()].placeholder = pubinfoUriPlaceholder;
+		}
+		GraphSettings pubinfo = graphSettings[NanopubGraph.PUBINFO.ordinal()];
+		pubinfo.dropCreationTime = Boolean.parseBoolean(profile.getProperty("drop-creation-time", "true"));
+		pubinfo.dropSupersedes = Boolean.parseBoolean(profile.getProperty("drop-supersedes", "true"));
+		TreeMap<Integer,String> rules = new TreeMap<>();
+		for (String key : profile.stringPropertyNames()) {
+			String value = profile.getProperty(key).trim();
+			if (key.matches("iri-rule\\.[0-9]+")) {
+				rules.put(Integer.parseInt(key.substring(9)), value);
+				continue;
+			}
+			if (key.equals("graphs") || key.equals("graph-placeholders") || key.equals("drop-creation-time") ||
+					key.equals("drop-supersedes")) {
+				continue;
+			}
+			List<GraphSettings> targets = new ArrayList<>();
+			String name = key;
+			int dot = key.indexOf('.');
+			if (dot > 0 && isGraph(key.substring(0, dot))) {
+				targets.add(graphSettings[getGraph(key.substring(0, dot)).ordinal()]);
+				name = key.substring(dot + 1);
+			} else {
+				for (GraphSettings s : graphSettings) targets.add(s);
+			}
+			if (name.indexOf('.') > 0) name = name.substring(0, name.indexOf('.'));
+			for (GraphSettings s : targets) {
+				if (name.equals("drop-predicates")) {
+					for (String p : split(value)) s.dropPredicates.add(vf.createIRI(p));
+				} else if (name.equals("timestamp-predicates")) {
+					for (String p : split(value)) s.timestampPredicates.add(vf.createIRI(p));
+					s.timestampPredicate = vf.createIRI(split(value)[0]);
+				} else if (name.equals("assertion-placeholder")) {
+					s.assertionPlaceholder = Boolean.parseBoolean(value);
+				} else if (name.equals("placeholder") || name.equals("subject-placeholder")) {
+					String[] parts = split(value);
+					if (parts.length < 2) throw new IllegalArgumentException("Placeholder IRI and terms expected: " + key);
+					Placeholder ph = new Placeholder();
+					ph.placeholder = vf.createIRI(parts[0]);
+					for (int i = 1; i < parts.length; i++) ph.matcher.add(parts[i]);
+					ph.matcher.compile();
+					ph.subjectOnly = name.equals("subject-placeholder");
+					s.placeholders.add(ph);
+				} else {
+					throw new IllegalArgumentException("Unknown profile key: " + key);
+				}
+			}
+		}
+		for (String r : rules.values()) {
+			iriRules.addRule(r);
+		}
+		for (GraphSettings s : graphSettings) {
+			s.unchanged = (s.placeholder == null && s.timestampPredicates.isEmpty() && !s.assertionPlaceholder &&
+					s.placeholders.isEmpty() && iriRules.size() == 0);
+		}
+	}
+
+	public void excludeGraph(NanopubGraph graph) {
+		graphSettings[graph.ordinal()].included = false;
+	}
+
+	@Override
+	public String getFingerprint(Nanopub np) {
+		String artifactCode = TrustyUriUtils.getArtifactCode(np.getUri().toString());
+		if (artifactCode == null) {
+			throw new RuntimeException("Not a trusty URI: " + np.getUri());
+		}
+		FingerprintHasher hasher = FingerprintHasher.forCurrentThread().start(artifactCode);
+		for (NanopubGraph g : NanopubGraph.values()) {
+			GraphSettings s = graphSettings[g.ordinal()];
+			if (!s.included) continue;
+			for (Statement st : getGraph(np, g)) {
+				IRI pred = st.getPredicate();
+				if (!s.dropPredicates.isEmpty() && s.dropPredicates.contains(pred)) continue;
+				if (s.dropCreationTime || s.dropSupersedes) {
+					if (st.getSubject().equals(np.getUri())) {
+						if (s.dropCreationTime && isCreationTimeProperty(pred)) continue;
+						if (s.dropSupersedes && pred.equals(Nanopub.SUPERSEDES)) continue;
+					}
+				}
+				if (s.unchanged) {
+					hasher.add(st);
+				} else {
+					addNormalized(st, s, np, hasher);
+				}
+			}
+		}
+		return hasher.finish();
+	}
+
+	private void addNormalized(Statement st, GraphSettings s, Nanopub np, FingerprintHasher hasher) {
+		Resource subj = st.getSubject();
+		IRI pred = st.getPredicate();
+		Value obj = st.getObject();
+		Resource context = (s.placeholder == null ? st.getContext() : s.placeholder);
+		if (s.timestampPredicates.contains(pred)) {
+			pred = s.timestampPredicate;
+			obj = timestampPlaceholder;
+		}
+		if (s.assertionPlaceholder && subj.equals(np.getAssertionUri())) {
+			subj = assertionUriPlaceholder;
+		}
+		for (Placeholder ph : s.placeholders) {
+			if (subj instanceof IRI && ph.matcher.matches(subj.stringValue())) subj = ph.placeholder;
+			if (ph.subjectOnly) continue;
+			if (ph.matcher.matches(pred.stringValue())) pred = ph.placeholder;
+			if (obj instanceof IRI && ph.matcher.matches(obj.stringValue())) obj = ph.placeholder;
+		}
+		if (iriRules.size() > 0) {
+			subj = (Resource) transform(subj);
+			pred = (IRI) transform(pred);
+			obj = transform(obj);
+		}
+		hasher.add(subj, pred, obj, context);
+	}
+
+	private Value transform(Value v) {
+		if (v instanceof IRI) {
+			String s = v.stringValue();
+			String r = iriRules.applyFirst(s);
+			if (r != s) return vf.createIRI(r);
+		}
+		return v;
+	}
+
+	private static Set<Statement> getGraph(Nanopub np, NanopubGraph g) {
+		switch (g) {
+		case HEAD: return np.getHead();
+		case ASSERTION: return np.getAssertion();
+		case PROVENANCE: return np.getProvenance();
+		default: return np.getPubinfo();
+		}
+	}
+
+	private static boolean isGraph(String name) {
+		return name.equals("head") || name.equals("assertion") || name.equals("provenance") || name.equals("pubinfo");
+	}
+
+	private static NanopubGraph getGraph(String name) {
+		if (!isGraph(name)) throw new IllegalArgumentException("Unknown graph: " + name);
+		return NanopubGraph.valueOf(name.toUpperCase());
+	}
+
+	private static String[] split(String value) {
+		return value.trim().split("\\s+");
+	}
+
+}
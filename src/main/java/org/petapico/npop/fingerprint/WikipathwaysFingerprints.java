@@ -2,20 +2,16 @@ package org.petapico.npop.fingerprint;
 
 import static org.nanopub.SimpleTimestampPattern.isCreationTimeProperty;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Set;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.Value;
-import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.nanopub.Nanopub;
-import org.nanopub.NanopubUtils;
 
 import net.trustyuri.TrustyUriUtils;
-import net.trustyuri.rdf.RdfHasher;
-import net.trustyuri.rdf.RdfPreprocessor;
 
 public class WikipathwaysFingerprints implements FingerprintHandler {
 
@@ -25,40 +21,34 @@ public class WikipathwaysFingerprints implements FingerprintHandler {
 		if (artifactCode == null) {
 			throw new RuntimeException("Not a trusty URI: " + np.getUri());
 		}
-		List<Statement> statements = getNormalizedStatements(np);
-		statements = RdfPreprocessor.run(statements, artifactCode);
-		String fingerprint = RdfHasher.makeArtifactCode(statements);
-		return fingerprint.substring(2);
-	}
-
-	private List<Statement> getNormalizedStatements(Nanopub np) {
-		List<Statement> statements = NanopubUtils.getStatements(np);
-		List<Statement> n = new ArrayList<>();
-		for (Statement st : statements) {
-			boolean isInAssertion = st.getContext().equals(np.getAssertionUri());
-			boolean isInProvenance = st.getContext().equals(np.getProvenanceUri());
-			boolean isInPubinfo = st.getContext().equals(np.getPubinfoUri());
-			if (!isInProvenance && !isInAssertion && !isInPubinfo) continue;
-			IRI graphURI;
-			if (isInAssertion) {
-				graphURI = assertionUriPlaceholder;
-			} else if (isInProvenance) {
-				graphURI = provUriPlaceholder;
-			} else {
-				graphURI = pubinfoUriPlaceholder;
-			}
-			Resource subj = st.getSubject();
-			IRI pred = st.getPredicate();
-			Value obj = st.getObject();
-			if (isInPubinfo && subj.equals(np.getUri()) && isCreationTimeProperty(pred)) {
-				continue;
-			}
-			if (isInPubinfo && subj.equals(np.getUri()) && pred.equals(Nanopub.SUPERSEDES)) {
-				continue;
+		FingerprintHasher hasher = FingerprintHasher.forCurrentThread().start(artifactCode);
+		for (Set<Statement> graph : Arrays.asList(np.getAssertion(), np.getProvenance(), np.getPubinfo())) {
+			for (Statement st : graph) {
+				boolean isInAssertion = st.getContext().equals(np.getAssertionUri());
+				boolean isInProvenance = st.getContext().equals(np.getProvenanceUri());
+				boolean isInPubinfo = st.getContext().equals(np.getPubinfoUri());
+				if (!isInProvenance && !isInAssertion && !isInPubinfo) continue;
+				IRI graphURI;
+				if (isInAssertion) {
+					graphURI = assertionUriPlaceholder;
+				} else if (isInProvenance) {
+					graphURI = provUriPlaceholder;
+				} else {
+					graphURI = pubinfoUriPlaceholder;
+				}
+				Resource subj = st.getSubject();
+				IRI pred = st.getPredicate();
+				Value obj = st.getObject();
+				if (isInPubinfo && subj.equals(np.getUri()) && isCreationTimeProperty(pred)) {
+					continue;
+				}
+				if (isInPubinfo && subj.equals(np.getUri()) && pred.equals(Nanopub.SUPERSEDES)) {
+					continue;
+				}
+				hasher.add(subj, pred, obj, graphURI);
 			}
-			n.add(SimpleValueFactory.getInstance().createStatement(subj, pred, obj, graphURI));
 		}
-		return n;
+		return hasher.finish();
 	}
 
 }
@@ -0,0 +1,210 @@
+package org.petapico.npop.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.rdf4j.model.Value;
+import org.petapico.npop.util.TermDictionary;
+
+/**
+ * Writes a graph in a binary form that can be memory-mapped by other tools. Nodes and predicates
+ * get dense int IDs in the order of their first occurrence. For the base name "g", these files
+ * are written:
+ *
+ *   g.nodes       node labels (IRIs), one per line; line i (from 0) is node i
+ *   g.predicates  predicate IRIs, one per line; line i (from 0) is predicate i
+ *
+ * and for the edge list form:
+ *
+ *   g.edges       one record of three int32 values per edge: source, predicate, target
+ *
+ * or for the compressed sparse row form:
+ *
+ *   g.offsets     int64 values: the edges of node i are at positions offsets[i] to
+ *                 offsets[i+1]-1 of the following two arrays (node count + 1 values)
+ *   g.targets     int32 target node of each edge
+ *   g.labels      int32 predicate of each edge
+ *
+ * All numbers are little-endian and the files have no headers. In the CSR form, the edges of a
+ * node are in the order in which they were added.
+ */
+public class BinaryGraphWriter {
+
+	private static final int BLOCK_SIZE = 1 << 22;
+	private static final int SEGMENT_BITS = 28;
+
+	private File baseFile;
+	private boolean csr;
+	private TermDictionary nodes = new TermDictionary();
+	private TermDictionary predicates = new TermDictionary();
+	private Writer nodeWriter, predicateWriter;
+	private File edgeFile;
+	private FileChannel edgeChannel;
+	private ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long edgeCount = 0;
+
+	public BinaryGraphWriter(File baseFile, boolean csr) throws IOException {
+		this.baseFile = baseFile;
+		this.csr = csr;
+		nodeWriter = openText(getFile("nodes"));
+		predicateWriter = openText(getFile("predicates"));
+		if (csr) {
+			// edges are collected in a temporary edge list and sorted by source on close()
+			edgeFile = File.createTempFile("npop-", ".edges", baseFile.getAbsoluteFile().getParentFile());
+			edgeFile.deleteOnExit();
+		} else {
+			edgeFile = getFile("edges");
+		}
+		edgeChannel = new FileOutputStream(edgeFile).getChannel();
+	}
+
+	public void addEdge(Value source, Value predicate, Value target) throws IOException {
+		int s = getId(nodes, nodeWriter, source);
+		int t = getId(nodes, nodeWriter, target);
+		int p = getId(predicates, predicateWriter, predicate);
+		if (block.remaining() < 12) writeBlock(edgeChannel, block);
+		block.putInt(s).putInt(p).putInt(t);
+		edgeCount++;
+	}
+
+	private static int getId(TermDictionary dict, Writer labelWriter, Value v) throws IOException {
+		int size = dict.size();
+		int i = dict.add(v);
+		if (i == size) {
+			labelWriter.write(v.stringValue());
+			labelWriter.write('\n');
+		}
+		return i;
+	}
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	public long getEdgeCount() {
+		return edgeCount;
+	}
+
+	public void close() throws IOException {
+		nodeWriter.close();
+		predicateWriter.close();
+		writeBlock(edgeChannel, block);
+		edgeChannel.close();
+		if (csr) {
+			try {
+				writeCsr();
+			} finally {
+				edgeFile.delete();
+			}
+		}
+	}
+
+	private void writeCsr() throws IOException {
+		int n = nodes.size();
+		// the offsets are first used to count the out-degrees, and then as insertion positions
+		long[] offsets = new long[n + 1];
+		FileChannel in = new RandomAccessFile(edgeFile, "r").getChannel();
+		try {
+			block.clear();
+			while (readBlock(in, block)) {
+				while (block.remaining() >= 12) {
+					offsets[block.getInt() + 1]++;
+					block.getInt();
+					block.getInt();
+				}
+				block.compact();
+			}
+			for (int i = 0; i < n; i++) {
+				offsets[i + 1] += offsets[i];
+			}
+			FileChannel offsetChannel = new FileOutputStream(getFile("offsets")).getChannel();
+			try {
+				block.clear();
+				for (long o : offsets) {
+					if (block.remaining() < 8) writeBlock(offsetChannel, block);
+					block.putLong(o);
+				}
+				writeBlock(offsetChannel, block);
+			} finally {
+				offsetChannel.close();
+			}
+			MappedByteBuffer[] targets = mapSegments(getFile("targets"));
+			MappedByteBuffer[] labels = mapSegments(getFile("labels"));
+			in.position(0);
+			block.clear();
+			while (readBlock(in, block)) {
+				while (block.remaining() >= 12) {
+					int s = block.getInt();
+					int p = block.getInt();
+					int t = block.getInt();
+					long pos = (offsets[s]++) * 4;
+					targets[(int) (pos >>> SEGMENT_BITS)].putInt((int) (pos & ((1 << SEGMENT_BITS) - 1)), t);
+					labels[(int) (pos >>> SEGMENT_BITS)].putInt((int) (pos & ((1 << SEGMENT_BITS) - 1)), p);
+				}
+				block.compact();
+			}
+			for (MappedByteBuffer b : targets) b.force();
+			for (MappedByteBuffer b : labels) b.force();
+		} finally {
+			in.close();
+		}
+	}
+
+	private MappedByteBuffer[] mapSegments(File file) throws IOException {
+		long size = edgeCount * 4;
+		int segmentCount = (int) Math.max(1, (size + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+		MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			for (int i = 0; i < segmentCount; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, start, Math.min(1L << SEGMENT_BITS, size - start));
+				segments[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} finally {
+			// mapped buffers stay valid after the file is closed
+			raf.close();
+		}
+		return segments;
+	}
+
+	private File getFile(String extension) {
+		return new File(baseFile.getPath() + "." + extension);
+	}
+
+	private static Writer openText(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	private static void writeBlock(FileChannel channel, ByteBuffer block) throws IOException {
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+	}
+
+	/**
+	 * Fills the block from the channel and flips it for reading. Returns false if no data is
+	 * left.
+	 */
+	private static boolean readBlock(FileChannel channel, ByteBuffer block) throws IOException {
+		while (block.hasRemaining()) {
+			if (channel.read(block) < 0) break;
+		}
+		block.flip();
+		return block.hasRemaining();
+	}
+
+}
@@ -0,0 +1,197 @@
+package org.petapico.npop.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.nanopub.MalformedNanopubException;
+import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
+import org.nanopub.Nanopub;
+import org.nanopub.NanopubUtils;
+
+/**
+ * Splits a stream of statements into nanopubs in the same way as MultiNanopubRdfHandler: each
+ * nanopub starts with its head graph, and ends at the first statement outside of its graphs.
+ * Instead of NanopubImpl objects, PartialNanopub objects are built, for which only the statements
+ * of the requested graphs are kept. The graphs are checked in the same way as in NanopubImpl,
+ * except for the syntax of the URIs. If statements are passed to a statement handler, only the
+ * head graph is checked, as the statements are not collected.
+ */
+public class GraphSelectiveRdfHandler extends AbstractRDFHandler {
+
+	public static interface StatementHandler {
+
+		public void handleStatement(NanopubGraph graph, Statement st) throws RDFHandlerException;
+
+		/**
+		 * Called after the last statement of each nanopub.
+		 */
+		public void endNanopub() throws RDFHandlerException;
+
+	}
+
+	public static void process(RDFFormat format, InputStream in, Set<NanopubGraph> graphs, NanopubHandler npHandler)
+			throws IOException, RDFParseException, RDFHandlerException, MalformedNanopubException {
+		process(format, in, new GraphSelectiveRdfHandler(graphs, null, npHandler));
+	}
+
+	/**
+	 * Passes the statements of the given graphs to the statement handler as they are parsed,
+	 * without building nanopub objects.
+	 */
+	public static void process(RDFFormat format, InputStream in, Set<NanopubGraph> graphs, StatementHandler stHandler)
+			throws IOException, RDFParseException, RDFHandlerException, MalformedNanopubException {
+		process(format, in, new GraphSelectiveRdfHandler(graphs, stHandler, null));
+	}
+
+	private static void process(RDFFormat format, InputStream in, GraphSelectiveRdfHandler handler)
+			throws IOException, RDFParseException, RDFHandlerException, MalformedNanopubException {
+		RDFParser p = NanopubUtils.getParser(format);
+		p.setRDFHandler(handler);
+		try {
+			p.parse(new InputStreamReader(in, StandardCharsets.UTF_8), "");
+		} catch (MalformedNanopubRuntimeException ex) {
+			throw (MalformedNanopubException) ex.getCause();
+		} finally {
+			in.close();
+		}
+	}
+
+	private Set<NanopubGraph> graphs;
+	private Set<NanopubGraph> loadedGraphs;
+	private StatementHandler stHandler;
+	private NanopubHandler npHandler;
+	private PartialNanopub np = null;
+	private boolean headComplete = false;
+	private StatementHashSet countedStatements = new StatementHashSet();
+
+	/**
+	 * Statements of the given graphs are passed to the statement handler if there is one, and are
+	 * otherwise loaded into the nanopubs passed to the nanopub handler.
+	 */
+	public GraphSelectiveRdfHandler(Set<NanopubGraph> graphs, StatementHandler stHandler, NanopubHandler npHandler) {
+		this.graphs = EnumSet.noneOf(NanopubGraph.class);
+		this.graphs.addAll(graphs);
+		this.stHandler = stHandler;
+		this.npHandler = npHandler;
+		loadedGraphs = (stHandler == null ? this.graphs : EnumSet.noneOf(NanopubGraph.class));
+	}
+
+	@Override
+	public void handleStatement(Statement st) throws RDFHandlerException {
+		Resource context = st.getContext();
+		if (np == null) {
+			if (!(context instanceof IRI)) {
+				throwMalformed("Triple without context found: " + st.getSubject() + " " + st.getPredicate() + " " + st.getObject());
+			}
+			np = new PartialNanopub((IRI) context, loadedGraphs, countedStatements);
+		}
+		if (!headComplete) {
+			if (np.headUri.equals(context)) {
+				IRI p = st.getPredicate();
+				if (p.equals(RDF.TYPE) && st.getObject().equals(Nanopub.NANOPUB_TYPE_URI)) {
+					np.uri = (IRI) st.getSubject();
+				} else if (p.equals(Nanopub.HAS_ASSERTION_URI)) {
+					np.assertionUri = (IRI) st.getObject();
+				} else if (p.equals(Nanopub.HAS_PROVENANCE_URI)) {
+					np.provenanceUri = (IRI) st.getObject();
+				} else if (p.equals(Nanopub.HAS_PUBINFO_URI)) {
+					np.pubinfoUri = (IRI) st.getObject();
+				}
+				add(NanopubGraph.HEAD, st);
+				return;
+			}
+			if (np.uri == null) throwMalformed("No nanopub URI found");
+			if (np.assertionUri == null) throwMalformed("No assertion URI found for " + np.uri);
+			if (np.provenanceUri == null) throwMalformed("No provenance URI found for " + np.uri);
+			if (np.pubinfoUri == null) throwMalformed("No publication info URI found for " + np.uri);
+			checkGraphUris();
+			headComplete = true;
+		}
+		NanopubGraph graph = np.getGraph(context);
+		if (graph == null) {
+			finish();
+			handleStatement(st);
+		} else {
+			add(graph, st);
+		}
+	}
+
+	private void add(NanopubGraph graph, Statement st) {
+		if (stHandler != null && graphs.contains(graph)) stHandler.handleStatement(graph, st);
+		if (npHandler != null) np.add(graph, st);
+	}
+
+	@Override
+	public void endRDF() throws RDFHandlerException {
+		if (np != null) finish();
+	}
+
+	private void finish() {
+		if (!headComplete) throwMalformed("Nanopub without content graphs: " + np.headUri);
+		PartialNanopub finished = np;
+		if (npHandler != null) {
+			checkContent();
+			finished.finish();
+		}
+		np = null;
+		headComplete = false;
+		if (stHandler != null) stHandler.endNanopub();
+		if (npHandler != null) npHandler.handleNanopub(finished);
+	}
+
+	// same checks as in NanopubImpl
+	private void checkGraphUris() {
+		IRI[] graphUris = new IRI[] { np.headUri, np.assertionUri, np.provenanceUri, np.pubinfoUri };
+		for (int i = 0; i < graphUris.length; i++) {
+			for (int j = 0; j < i; j++) {
+				if (graphUris[i].equals(graphUris[j])) throwMalformed("Each graph needs a unique URI: " + graphUris[i]);
+			}
+		}
+		for (IRI g : graphUris) {
+			if (g.equals(np.uri)) throwMalformed("Nanopub URI cannot be identical to one of the graph URIs: " + np.uri);
+		}
+	}
+
+	private void checkContent() {
+		if (np.getStatementCount(NanopubGraph.ASSERTION) == 0) {
+			throwMalformed("Empty assertion graph: " + np.assertionUri);
+		}
+		if (np.getStatementCount(NanopubGraph.PROVENANCE) == 0) {
+			throwMalformed("Empty provenance graph: " + np.provenanceUri);
+		}
+		if (!np.provenanceLinked) throwMalformed("Provenance does not refer to assertion: " + np.provenanceUri);
+		if (np.getStatementCount(NanopubGraph.PUBINFO) == 0) {
+			throwMalformed("Empty publication info graph: " + np.pubinfoUri);
+		}
+		if (!np.pubinfoLinked) throwMalformed("Publication info does not refer to nanopublication URI: " + np.pubinfoUri);
+	}
+
+	private void throwMalformed(String message) {
+		throw new MalformedNanopubRuntimeException(new MalformedNanopubException(message));
+	}
+
+
+	private static class MalformedNanopubRuntimeException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		MalformedNanopubRuntimeException(MalformedNanopubException cause) {
+			super(cause);
+		}
+
+	}
+
+}
@@ -0,0 +1,10 @@
+package org.petapico.npop.io;
+
+/**
+ * The four graphs of a nanopub.
+ */
+public enum NanopubGraph {
+
+	HEAD, ASSERTION, PROVENANCE, PUBINFO
+
+}
@@ -0,0 +1,285 @@
+package org.petapico.npop.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.Rio;
+import org.nanopub.MalformedNanopubException;
+import org.nanopub.MultiNanopubRdfHandler;
+import org.nanopub.MultiNanopubRdfHandler.NanopubHandler;
+import org.nanopub.Nanopub;
+import org.petapico.npop.io.GraphSelectiveRdfHandler.StatementHandler;
+
+/**
+ * Reads the nanopubs of a list of input files and passes them to a handler. With more than one
+ * thread, several files are parsed concurrently, each on its own thread. The handler is always
+ * called from the thread that calls process(), so it does not need to be thread-safe. If order
+ * is preserved, the handler gets the nanopubs in exactly the same order as with sequential
+ * reading; otherwise the nanopubs of different files are interleaved as they are parsed.
+ */
+public class NanopubInput {
+
+	public static abstract class Handler {
+
+		public abstract void handleNanopub(Nanopub np, File inputFile) throws Exception;
+
+		/**
+		 * Called after all nanopubs of the given file have been passed to handleNanopub.
+		 */
+		public void endFile(File inputFile) throws Exception {
+		}
+
+	}
+
+	private static final int QUEUE_CAPACITY = 64;
+
+	private List<File> inputFiles;
+	private String inFormat;
+	private int threads = 1;
+	private boolean preserveOrder = false;
+	private Set<NanopubGraph> graphs = null;
+
+	public NanopubInput(List<File> inputFiles, String inFormat) {
+		this.inputFiles = inputFiles;
+		this.inFormat = inFormat;
+	}
+
+	public NanopubInput setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	public NanopubInput setPreserveOrder(boolean preserveOrder) {
+		this.preserveOrder = preserveOrder;
+		return this;
+	}
+
+	/**
+	 * Only loads the statements of the given graphs. The handler then gets PartialNanopub objects,
+	 * whose other graphs are empty.
+	 */
+	public NanopubInput setGraphs(Set<NanopubGraph> graphs) {
+		this.graphs = graphs;
+		return this;
+	}
+
+	public RDFFormat getFormat(File inputFile) {
+		if (inFormat != null) {
+			return Rio.getParserFormatForFileName("file." + inFormat).orElse(null);
+		} else {
+			return Rio.getParserFormatForFileName(inputFile.toString()).orElse(null);
+		}
+	}
+
+	/**
+	 * Parses the nanopubs of the given file. Gzipped files are decompressed on a separate thread,
+	 * ahead of the parser.
+	 */
+	public static void readFile(RDFFormat format, File file, NanopubHandler handler) throws IOException,
+			RDFParseException, RDFHandlerException, MalformedNanopubException {
+		readFile(format, file, null, handler);
+	}
+
+	/**
+	 * Parses the nanopubs of the given file, loading only the given graphs (or all graphs if null).
+	 */
+	public static void readFile(RDFFormat format, File file, Set<NanopubGraph> graphs, NanopubHandler handler)
+			throws IOException, RDFParseException, RDFHandlerException, MalformedNanopubException {
+		if (graphs != null) {
+			GraphSelectiveRdfHandler.process(format, open(file), graphs, handler);
+		} else if (isGzipped(file)) {
+			MultiNanopubRdfHandler.process(format, ReadAheadInputStream.openGzip(file), handler);
+		} else {
+			MultiNanopubRdfHandler.process(format, file, handler);
+		}
+	}
+
+	/**
+	 * Opens the given file for reading, decompressing it ahead of the reader if it is gzipped.
+	 */
+	public static InputStream open(File file) throws IOException {
+		if (isGzipped(file)) return ReadAheadInputStream.openGzip(file);
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	private static boolean isGzipped(File file) {
+		return file.getName().matches(".*\\.(gz|gzip)");
+	}
+
+	/**
+	 * Passes the statements of the given graphs to the handler as they are parsed, without
+	 * building nanopub objects. The files are read one after the other, in the given order.
+	 */
+	public void processStatements(Set<NanopubGraph> graphs, StatementHandler handler) throws IOException,
+			RDFParseException, RDFHandlerException, MalformedNanopubException {
+		for (File inputFile : inputFiles) {
+			GraphSelectiveRdfHandler.process(getFormat(inputFile), open(inputFile), graphs, handler);
+		}
+	}
+
+	public void process(final Handler handler) throws IOException, RDFParseException, RDFHandlerException,
+			MalformedNanopubException {
+		try {
+			if (threads > 1 && inputFiles.size() > 1) {
+				new ParallelReader(handler).run();
+			} else {
+				for (final File inputFile : inputFiles) {
+					readFile(getFormat(inputFile), inputFile, graphs, new NanopubHandler() {
+
+						@Override
+						public void handleNanopub(Nanopub np) {
+							try {
+								handler.handleNanopub(np, inputFile);
+							} catch (RuntimeException ex) {
+								throw ex;
+							} catch (Exception ex) {
+								throw new RuntimeException(ex);
+							}
+						}
+
+					});
+					handler.endFile(inputFile);
+				}
+			}
+		} catch (IOException | MalformedNanopubException | RuntimeException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+
+	private static class Item {
+
+		File file;
+		Nanopub np;
+		Throwable error;
+
+		Item(File file, Nanopub np, Throwable error) {
+			this.file = file;
+			this.np = np;
+			this.error = error;
+		}
+
+	}
+
+
+	private class ParallelReader {
+
+		private Handler handler;
+		private BlockingQueue<Item> sharedQueue;
+		private List<BlockingQueue<Item>> fileQueues;
+		private AtomicInteger nextFile = new AtomicInteger(0);
+		private volatile boolean cancelled = false;
+
+		ParallelReader(Handler handler) {
+			this.handler = handler;
+			if (preserveOrder) {
+				fileQueues = new ArrayList<>(inputFiles.size());
+				for (int i = 0; i < inputFiles.size(); i++) {
+					fileQueues.add(new ArrayBlockingQueue<Item>(QUEUE_CAPACITY));
+				}
+			} else {
+				sharedQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY * threads);
+			}
+		}
+
+		void run() throws Exception {
+			int threadCount = Math.min(threads, inputFiles.size());
+			for (int i = 0; i < threadCount; i++) {
+				Thread t = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						parseFiles();
+					}
+
+				}, "npop-input-" + i);
+				t.setDaemon(true);
+				t.start();
+			}
+			try {
+				if (preserveOrder) {
+					for (int i = 0; i < inputFiles.size(); i++) {
+						consume(fileQueues.get(i), 1);
+					}
+				} else {
+					consume(sharedQueue, inputFiles.size());
+				}
+			} finally {
+				cancelled = true;
+			}
+		}
+
+		private void consume(BlockingQueue<Item> queue, int fileCount) throws Exception {
+			int remaining = fileCount;
+			while (remaining > 0) {
+				Item item = queue.take();
+				if (item.error != null) {
+					if (item.error instanceof Exception) throw (Exception) item.error;
+					throw (Error) item.error;
+				} else if (item.np == null) {
+					handler.endFile(item.file);
+					remaining--;
+				} else {
+					handler.handleNanopub(item.np, item.file);
+				}
+			}
+		}
+
+		private void parseFiles() {
+			while (!cancelled) {
+				int i = nextFile.getAndIncrement();
+				if (i >= inputFiles.size()) return;
+				final File inputFile = inputFiles.get(i);
+				final BlockingQueue<Item> queue = (preserveOrder ? fileQueues.get(i) : sharedQueue);
+				try {
+					readFile(getFormat(inputFile), inputFile, graphs, new NanopubHandler() {
+
+						@Override
+						public void handleNanopub(Nanopub np) {
+							put(queue, new Item(inputFile, np, null));
+						}
+
+					});
+					put(queue, new Item(inputFile, null, null));
+				} catch (Throwable ex) {
+					if (cancelled) return;
+					put(queue, new Item(inputFile, null, ex));
+				}
+			}
+		}
+
+		private void put(BlockingQueue<Item> queue, Item item) {
+			try {
+				while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+					if (cancelled) throw new CancelledException();
+				}
+			} catch (InterruptedException ex) {
+				throw new CancelledException();
+			}
+		}
+
+	}
+
+
+	private static class CancelledException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+}
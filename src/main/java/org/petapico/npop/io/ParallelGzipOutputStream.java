@@ -0,0 +1,179 @@
+package org.petapico.npop.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that compresses blocks of data in parallel, in the manner of pigz. Each block
+ * is deflated independently with the last 32 kB of the preceding block as dictionary and ends
+ * with a sync flush, so the concatenated blocks form a single standard deflate stream and the
+ * result is a regular single-member gzip file. The CRC is computed sequentially on the writing
+ * thread.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final byte[] header = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static ExecutorService executor;
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+				private int count = 0;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "npop-gzip-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+
+			});
+		}
+		return executor;
+	}
+
+	private final int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+	private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+	private CRC32 crc = new CRC32();
+	private long inputSize = 0;
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength = 0;
+	private byte[] dictionary = null;
+	private boolean closed = false;
+
+	public ParallelGzipOutputStream(OutputStream out) throws IOException {
+		super(out);
+		out.write(header);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) throw new IOException("Stream closed");
+		crc.update(b, off, len);
+		inputSize += len;
+		while (len > 0) {
+			int n = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+			if (blockLength == BLOCK_SIZE) submitBlock(false);
+		}
+	}
+
+	/**
+	 * Writes out all blocks compressed so far. Data that does not yet fill a block is kept back, as
+	 * flushing it would make the compression worse.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while (!pending.isEmpty()) {
+			writeNext();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		submitBlock(true);
+		while (!pending.isEmpty()) {
+			writeNext();
+		}
+		closed = true;
+		writeIntLE((int) crc.getValue());
+		writeIntLE((int) inputSize);
+		out.flush();
+		out.close();
+	}
+
+	private void submitBlock(final boolean last) throws IOException {
+		final byte[] data = Arrays.copyOf(block, blockLength);
+		final byte[] dict = dictionary;
+		if (blockLength >= DICTIONARY_SIZE) {
+			dictionary = Arrays.copyOfRange(block, blockLength - DICTIONARY_SIZE, blockLength);
+		} else if (blockLength > 0) {
+			dictionary = concatTail(dictionary, data);
+		}
+		blockLength = 0;
+		pending.add(getExecutor().submit(new Callable<byte[]>() {
+
+			@Override
+			public byte[] call() {
+				return deflate(data, dict, last);
+			}
+
+		}));
+		while (pending.size() > maxPending) {
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException {
+		try {
+			out.write(pending.poll().get());
+		} catch (InterruptedException ex) {
+			throw new IOException(ex);
+		} catch (ExecutionException ex) {
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	private static byte[] concatTail(byte[] previous, byte[] data) {
+		if (previous == null) return data;
+		int previousLength = Math.min(previous.length, DICTIONARY_SIZE - data.length);
+		byte[] d = new byte[previousLength + data.length];
+		System.arraycopy(previous, previous.length - previousLength, d, 0, previousLength);
+		System.arraycopy(data, 0, d, previousLength, data.length);
+		return d;
+	}
+
+	private static byte[] deflate(byte[] data, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if (dictionary != null) deflater.setDictionary(dictionary);
+			deflater.setInput(data);
+			if (last) deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buffer = new byte[64 * 1024];
+			while (true) {
+				int n = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				out.write(buffer, 0, n);
+				if (last ? deflater.finished() : n < buffer.length) break;
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeIntLE(int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+		out.write((v >>> 16) & 0xff);
+		out.write((v >>> 24) & 0xff);
+	}
+
+}
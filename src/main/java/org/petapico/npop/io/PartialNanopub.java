@@ -0,0 +1,194 @@
+package org.petapico.npop.io;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.nanopub.Nanopub;
+import org.nanopub.SimpleCreatorPattern;
+import org.nanopub.SimpleTimestampPattern;
+
+/**
+ * Nanopub of which only some graphs are loaded. The statements of the other graphs are only
+ * counted, so their statement sets are empty, but getStatementCount still gives their sizes.
+ * Statements are counted without duplicates, like in NanopubImpl; for the graphs that are not
+ * loaded, duplicates are found by 64-bit statement hashes, so the statements don't need to be
+ * kept. The structural checks of NanopubImpl are made by GraphSelectiveRdfHandler, but URIs are
+ * not checked for their syntax.
+ */
+public class PartialNanopub implements Nanopub {
+
+	/**
+	 * Returns the number of statements of the given graph, also for graphs that are not loaded.
+	 */
+	public static int getStatementCount(Nanopub np, NanopubGraph graph) {
+		if (np instanceof PartialNanopub) {
+			return ((PartialNanopub) np).getStatementCount(graph);
+		}
+		switch (graph) {
+		case HEAD: return np.getHead().size();
+		case ASSERTION: return np.getAssertion().size();
+		case PROVENANCE: return np.getProvenance().size();
+		default: return np.getPubinfo().size();
+		}
+	}
+
+	IRI uri, headUri, assertionUri, provenanceUri, pubinfoUri;
+
+	private Set<NanopubGraph> loadedGraphs;
+	private Set<Statement> head, assertion, provenance, pubinfo;
+	// hashes of the statements of the graphs that are not loaded, to count them without duplicates
+	private StatementHashSet countedStatements;
+	private int[] counts = new int[4];
+	private long byteCount = 0;
+	boolean provenanceLinked = false, pubinfoLinked = false;
+
+	PartialNanopub(IRI headUri, Set<NanopubGraph> loadedGraphs, StatementHashSet countedStatements) {
+		this.headUri = headUri;
+		this.loadedGraphs = loadedGraphs;
+		this.countedStatements = countedStatements;
+		head = newSet(NanopubGraph.HEAD);
+		assertion = newSet(NanopubGraph.ASSERTION);
+		provenance = newSet(NanopubGraph.PROVENANCE);
+		pubinfo = newSet(NanopubGraph.PUBINFO);
+	}
+
+	private Set<Statement> newSet(NanopubGraph graph) {
+		if (loadedGraphs.contains(graph)) return new LinkedHashSet<>();
+		return Collections.emptySet();
+	}
+
+	NanopubGraph getGraph(Resource context) {
+		if (context == null) return null;
+		if (context.equals(assertionUri)) return NanopubGraph.ASSERTION;
+		if (context.equals(provenanceUri)) return NanopubGraph.PROVENANCE;
+		if (context.equals(pubinfoUri)) return NanopubGraph.PUBINFO;
+		if (context.equals(headUri)) return NanopubGraph.HEAD;
+		return null;
+	}
+
+	void add(NanopubGraph graph, Statement st) {
+		if (loadedGraphs.contains(graph)) {
+			Set<Statement> statements;
+			switch (graph) {
+			case HEAD: statements = head; break;
+			case ASSERTION: statements = assertion; break;
+			case PROVENANCE: statements = provenance; break;
+			default: statements = pubinfo;
+			}
+			if (!statements.add(st)) return;
+		} else if (!countedStatements.add(graph, st)) {
+			return;
+		}
+		counts[graph.ordinal()]++;
+		byteCount += st.getContext().stringValue().length() + st.getSubject().stringValue().length() +
+				st.getPredicate().stringValue().length() + st.getObject().stringValue().length();
+		if (graph == NanopubGraph.PROVENANCE && !provenanceLinked) {
+			provenanceLinked = assertionUri.equals(st.getSubject()) || assertionUri.equals(st.getObject());
+		} else if (graph == NanopubGraph.PUBINFO && !pubinfoLinked) {
+			pubinfoLinked = uri.equals(st.getSubject()) || uri.equals(st.getObject());
+		}
+	}
+
+	void finish() {
+		countedStatements.clear();
+		countedStatements = null;
+	}
+
+	public boolean isLoaded(NanopubGraph graph) {
+		return loadedGraphs.contains(graph);
+	}
+
+	public int getStatementCount(NanopubGraph graph) {
+		return counts[graph.ordinal()];
+	}
+
+	@Override
+	public IRI getUri() {
+		return uri;
+	}
+
+	@Override
+	public IRI getHeadUri() {
+		return headUri;
+	}
+
+	@Override
+	public Set<Statement> getHead() {
+		return head;
+	}
+
+	@Override
+	public IRI getAssertionUri() {
+		return assertionUri;
+	}
+
+	@Override
+	public Set<Statement> getAssertion() {
+		return assertion;
+	}
+
+	@Override
+	public IRI getProvenanceUri() {
+		return provenanceUri;
+	}
+
+	@Override
+	public Set<Statement> getProvenance() {
+		return provenance;
+	}
+
+	@Override
+	public IRI getPubinfoUri() {
+		return pubinfoUri;
+	}
+
+	@Override
+	public Set<Statement> getPubinfo() {
+		return pubinfo;
+	}
+
+	@Override
+	public Set<IRI> getGraphUris() {
+		Set<IRI> graphUris = new LinkedHashSet<>();
+		graphUris.add(headUri);
+		graphUris.add(assertionUri);
+		graphUris.add(provenanceUri);
+		graphUris.add(pubinfoUri);
+		return graphUris;
+	}
+
+	@Override
+	public Calendar getCreationTime() {
+		return SimpleTimestampPattern.getCreationTime(this);
+	}
+
+	@Override
+	public Set<IRI> getAuthors() {
+		return SimpleCreatorPattern.getAuthors(this);
+	}
+
+	@Override
+	public Set<IRI> getCreators() {
+		return SimpleCreatorPattern.getCreators(this);
+	}
+
+	@Override
+	public int getTripleCount() {
+		int c = 0;
+		for (NanopubGraph g : NanopubGraph.values()) {
+			c += getStatementCount(g);
+		}
+		return c;
+	}
+
+	@Override
+	public long getByteCount() {
+		return byteCount;
+	}
+
+}
@@ -0,0 +1,252 @@
+package org.petapico.npop.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.nanopub.MalformedNanopubException;
+import org.nanopub.Nanopub;
+
+/**
+ * Splits an N-Quads stream into nanopubs without parsing the RDF terms, and passes the original
+ * bytes of each nanopub on. Lines are only tokenized to find their graph, and the lines of the
+ * head graph to find the nanopub URI and the other graphs. Nanopubs are delimited in the same
+ * way as in MultiNanopubRdfHandler: a nanopub starts with its head graph and ends at the first
+ * line outside of its graphs. URIs are taken as they appear in the file, without unescaping.
+ * Empty lines and comment lines are dropped.
+ */
+public class RawNquadsReader {
+
+	public static interface Handler {
+
+		/**
+		 * The data is only valid until the method returns.
+		 */
+		public void handleNanopub(String nanopubUri, byte[] data, int length) throws IOException;
+
+	}
+
+	private static final byte[] typePredicate = toBytes("<" + RDF.TYPE + ">");
+	private static final byte[] nanopubType = toBytes("<" + Nanopub.NANOPUB_TYPE_URI + ">");
+	private static final byte[] hasAssertion = toBytes("<" + Nanopub.HAS_ASSERTION_URI + ">");
+	private static final byte[] hasProvenance = toBytes("<" + Nanopub.HAS_PROVENANCE_URI + ">");
+	private static final byte[] hasPubinfo = toBytes("<" + Nanopub.HAS_PUBINFO_URI + ">");
+
+	private InputStream in;
+	private Handler handler;
+
+	private byte[] buffer = new byte[1 << 16];
+	private int bufferStart = 0, bufferEnd = 0;
+	private boolean eof = false;
+	private long lineNumber = 0;
+
+	private byte[] record = new byte[1 << 14];
+	private int recordLength = 0;
+
+	// token boundaries of the current line
+	private int sStart, sEnd, pStart, pEnd, oStart, oEnd, gStart, gEnd;
+
+	// current nanopub
+	private byte[] headGraph, assertionGraph, provenanceGraph, pubinfoGraph;
+	private String nanopubUri;
+	private boolean headComplete;
+
+	public RawNquadsReader(InputStream in, Handler handler) {
+		this.in = in;
+		this.handler = handler;
+	}
+
+	public void read() throws IOException, MalformedNanopubException {
+		try {
+			while (true) {
+				int lineEnd = nextLine();
+				if (lineEnd < 0) break;
+				int lineStart = bufferStart;
+				bufferStart = lineEnd + 1;
+				lineNumber++;
+				if (!tokenize(buffer, lineStart, lineEnd)) continue;
+				handleLine(lineStart, lineEnd);
+			}
+			if (headGraph != null) finish();
+		} finally {
+			in.close();
+		}
+	}
+
+	private void handleLine(int lineStart, int lineEnd) throws IOException, MalformedNanopubException {
+		if (gStart < 0) {
+			throw new MalformedNanopubException("Triple without context found in line " + lineNumber);
+		}
+		if (headGraph == null) {
+			headGraph = Arrays.copyOfRange(buffer, gStart, gEnd);
+		}
+		if (!headComplete) {
+			if (equalsRange(headGraph, gStart, gEnd)) {
+				if (equalsRange(typePredicate, pStart, pEnd) && equalsRange(nanopubType, oStart, oEnd)) {
+					nanopubUri = getUri(sStart, sEnd);
+				} else if (equalsRange(hasAssertion, pStart, pEnd)) {
+					assertionGraph = Arrays.copyOfRange(buffer, oStart, oEnd);
+				} else if (equalsRange(hasProvenance, pStart, pEnd)) {
+					provenanceGraph = Arrays.copyOfRange(buffer, oStart, oEnd);
+				} else if (equalsRange(hasPubinfo, pStart, pEnd)) {
+					pubinfoGraph = Arrays.copyOfRange(buffer, oStart, oEnd);
+				}
+				appendLine(lineStart, lineEnd);
+				return;
+			}
+			if (nanopubUri == null) {
+				throw new MalformedNanopubException("No nanopub URI found before line " + lineNumber);
+			}
+			headComplete = true;
+		}
+		if (equalsRange(assertionGraph, gStart, gEnd) || equalsRange(provenanceGraph, gStart, gEnd) ||
+				equalsRange(pubinfoGraph, gStart, gEnd) || equalsRange(headGraph, gStart, gEnd)) {
+			appendLine(lineStart, lineEnd);
+		} else {
+			finish();
+			handleLine(lineStart, lineEnd);
+		}
+	}
+
+	private void finish() throws IOException, MalformedNanopubException {
+		if (nanopubUri == null) {
+			throw new MalformedNanopubException("No nanopub URI found before line " + lineNumber);
+		}
+		handler.handleNanopub(nanopubUri, record, recordLength);
+		recordLength = 0;
+		headGraph = assertionGraph = provenanceGraph = pubinfoGraph = null;
+		nanopubUri = null;
+		headComplete = false;
+	}
+
+	private void appendLine(int lineStart, int lineEnd) {
+		int length = lineEnd - lineStart;
+		// strip carriage return
+		if (length > 0 && buffer[lineEnd - 1] == '\r') length--;
+		if (recordLength + length + 1 > record.length) {
+			record = Arrays.copyOf(record, Math.max(record.length * 2, recordLength + length + 1));
+		}
+		System.arraycopy(buffer, lineStart, record, recordLength, length);
+		recordLength += length;
+		record[recordLength++] = '\n';
+	}
+
+	/**
+	 * Returns the position of the end of the next line in the buffer (the position of its newline
+	 * character, or the end of the data for a last line without newline), or -1 at the end.
+	 */
+	private int nextLine() throws IOException {
+		int searchFrom = bufferStart;
+		while (true) {
+			for (int i = searchFrom; i < bufferEnd; i++) {
+				if (buffer[i] == '\n') return i;
+			}
+			if (eof) {
+				if (bufferStart < bufferEnd) {
+					// last line without newline; pretend there is one after it
+					if (bufferEnd == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length + 1);
+					buffer[bufferEnd] = '\n';
+					return bufferEnd++;
+				}
+				return -1;
+			}
+			searchFrom = bufferEnd - bufferStart;
+			if (bufferStart > 0) {
+				System.arraycopy(buffer, bufferStart, buffer, 0, bufferEnd - bufferStart);
+				bufferEnd -= bufferStart;
+				bufferStart = 0;
+			} else if (bufferEnd == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			int n = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+			if (n < 0) {
+				eof = true;
+			} else {
+				bufferEnd += n;
+			}
+		}
+	}
+
+	/**
+	 * Finds the terms of the line. Returns false for empty and comment lines.
+	 */
+	private boolean tokenize(byte[] b, int start, int end) throws MalformedNanopubException {
+		int pos = skipWhitespace(b, start, end);
+		if (pos == end || b[pos] == '#') return false;
+		sStart = pos;
+		sEnd = pos = termEnd(b, pos, end);
+		pStart = pos = skipWhitespace(b, pos, end);
+		pEnd = pos = termEnd(b, pos, end);
+		oStart = pos = skipWhitespace(b, pos, end);
+		oEnd = pos = termEnd(b, pos, end);
+		pos = skipWhitespace(b, pos, end);
+		if (pos < end && b[pos] != '.') {
+			gStart = pos;
+			gEnd = pos = termEnd(b, pos, end);
+			pos = skipWhitespace(b, pos, end);
+		} else {
+			gStart = gEnd = -1;
+		}
+		if (pos >= end || b[pos] != '.') {
+			throw new MalformedNanopubException("Invalid N-Quads line " + lineNumber);
+		}
+		return true;
+	}
+
+	private int termEnd(byte[] b, int pos, int end) throws MalformedNanopubException {
+		if (pos >= end) throw new MalformedNanopubException("Invalid N-Quads line " + lineNumber);
+		byte c = b[pos];
+		if (c == '<') {
+			while (pos < end && b[pos] != '>') pos++;
+			if (pos == end) throw new MalformedNanopubException("Invalid N-Quads line " + lineNumber);
+			return pos + 1;
+		} else if (c == '"') {
+			pos++;
+			while (pos < end && b[pos] != '"') {
+				if (b[pos] == '\\') pos++;
+				pos++;
+			}
+			if (pos >= end) throw new MalformedNanopubException("Invalid N-Quads line " + lineNumber);
+			pos++;
+			if (pos < end && b[pos] == '@') {
+				while (pos < end && !isWhitespace(b[pos])) pos++;
+			} else if (pos + 1 < end && b[pos] == '^' && b[pos + 1] == '^') {
+				return termEnd(b, pos + 2, end);
+			}
+			return pos;
+		} else {
+			while (pos < end && !isWhitespace(b[pos])) pos++;
+			return pos;
+		}
+	}
+
+	private static int skipWhitespace(byte[] b, int pos, int end) {
+		while (pos < end && isWhitespace(b[pos])) pos++;
+		return pos;
+	}
+
+	private static boolean isWhitespace(byte c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	private boolean equalsRange(byte[] a, int start, int end) {
+		if (a == null || a.length != end - start) return false;
+		for (int i = a.length - 1; i >= 0; i--) {
+			// compare from the end, where URIs of the same nanopub differ
+			if (a[i] != buffer[start + i]) return false;
+		}
+		return true;
+	}
+
+	private String getUri(int start, int end) {
+		if (buffer[start] == '<') return new String(buffer, start + 1, end - start - 2, StandardCharsets.UTF_8);
+		return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] toBytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.petapico.npop.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Input stream that reads its source on a separate thread, a few chunks ahead of the consumer.
+ * Wrapped around a GZIPInputStream, this lets decompression run in parallel to parsing.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final int MAX_CHUNKS = 8;
+
+	private static final Chunk end = new Chunk(null, -1, null);
+
+	public static InputStream openGzip(File file) throws IOException {
+		return new ReadAheadInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), CHUNK_SIZE), 64 * 1024));
+	}
+
+	private final InputStream in;
+	private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(MAX_CHUNKS);
+	private final Thread reader;
+	private volatile boolean closed = false;
+	private Chunk current;
+	private int position;
+
+	public ReadAheadInputStream(InputStream in) {
+		this.in = in;
+		reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				readAhead();
+			}
+
+		}, "npop-read-ahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void readAhead() {
+		// a final chunk is always queued, so the consumer cannot wait forever
+		Chunk last = end;
+		try {
+			while (!closed) {
+				byte[] b = new byte[CHUNK_SIZE];
+				int length = 0;
+				while (length < b.length) {
+					int n = in.read(b, length, b.length - length);
+					if (n < 0) break;
+					length += n;
+				}
+				if (length > 0) put(new Chunk(b, length, null));
+				if (length < b.length) break;
+			}
+		} catch (Throwable t) {
+			last = new Chunk(null, -1, t);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+			put(last);
+		}
+	}
+
+	private void put(Chunk chunk) {
+		try {
+			while (!closed && !queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				// wait for consumer
+			}
+		} catch (InterruptedException ex) {
+			// closed
+		}
+	}
+
+	private boolean nextChunk() throws IOException {
+		if (closed) throw new IOException("Stream closed");
+		if (current == end) return false;
+		if (current != null && current.error != null) throwError(current.error);
+		if (current != null && position < current.length) return true;
+		try {
+			current = queue.take();
+		} catch (InterruptedException ex) {
+			throw new IOException(ex);
+		}
+		position = 0;
+		// the error chunk stays current, so the error is thrown again on later calls
+		if (current.error != null) throwError(current.error);
+		return current != end;
+	}
+
+	private static void throwError(Throwable t) throws IOException {
+		if (t instanceof IOException) throw (IOException) t;
+		if (t instanceof RuntimeException) throw (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		throw new IOException(t);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextChunk()) return -1;
+		return current.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (!nextChunk()) return -1;
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (current == null || current.length < 0) return 0;
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		reader.interrupt();
+	}
+
+
+	private static class Chunk {
+
+		final byte[] data;
+		final int length;
+		final Throwable error;
+
+		Chunk(byte[] data, int length, Throwable error) {
+			this.data = data;
+			this.length = length;
+			this.error = error;
+		}
+
+	}
+
+}
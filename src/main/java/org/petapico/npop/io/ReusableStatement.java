@@ -0,0 +1,70 @@
+package org.petapico.npop.io;
+
+import java.util.Objects;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Mutable statement without context, to pass the triple of a quad on to a writer without creating
+ * a new statement object each time. It must only be handed to consumers that do not keep the
+ * statement after handleStatement returns.
+ */
+public class ReusableStatement implements Statement {
+
+	private static final long serialVersionUID = 1L;
+
+	private Resource subject;
+	private IRI predicate;
+	private Value object;
+
+	public ReusableStatement set(Statement st) {
+		subject = st.getSubject();
+		predicate = st.getPredicate();
+		object = st.getObject();
+		return this;
+	}
+
+	@Override
+	public Resource getSubject() {
+		return subject;
+	}
+
+	@Override
+	public IRI getPredicate() {
+		return predicate;
+	}
+
+	@Override
+	public Value getObject() {
+		return object;
+	}
+
+	@Override
+	public Resource getContext() {
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) return true;
+		if (!(other instanceof Statement)) return false;
+		Statement that = (Statement) other;
+		return object.equals(that.getObject()) && subject.equals(that.getSubject()) &&
+				predicate.equals(that.getPredicate()) && that.getContext() == null;
+	}
+
+	@Override
+	public int hashCode() {
+		// same as SimpleStatement
+		return Objects.hash(subject, predicate, object, null);
+	}
+
+	@Override
+	public String toString() {
+		return "(" + subject + ", " + predicate + ", " + object + ")";
+	}
+
+}
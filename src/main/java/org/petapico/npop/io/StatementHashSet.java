@@ -0,0 +1,98 @@
+package org.petapico.npop.io;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Set of 64-bit statement hashes, to count the statements of a nanopub without duplicates and
+ * without keeping the statements. The set is reused for each nanopub; clearing it only resets the
+ * slots that were used. Statements with equal hashes are taken to be equal.
+ */
+class StatementHashSet {
+
+	private long[] table = new long[1024];
+	private int mask = table.length - 1;
+	private int[] usedSlots = new int[512];
+	private int size = 0;
+
+	/**
+	 * Adds the hash of the given statement of the given graph, and returns false if it was already
+	 * present.
+	 */
+	boolean add(NanopubGraph graph, Statement st) {
+		long h = graph.ordinal() + 1;
+		h = hash(h, st.getSubject());
+		h = hash(h, st.getPredicate());
+		h = hash(h, st.getObject());
+		h = mix(h);
+		if (h == 0) h = 1;  // 0 marks empty slots
+		int slot = (int) h & mask;
+		while (table[slot] != 0) {
+			if (table[slot] == h) return false;
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = h;
+		if (size == usedSlots.length) usedSlots = Arrays.copyOf(usedSlots, size * 2);
+		usedSlots[size++] = slot;
+		if (size * 2 > table.length) rehash();
+		return true;
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			table[usedSlots[i]] = 0;
+		}
+		size = 0;
+	}
+
+	private void rehash() {
+		long[] oldTable = table;
+		table = new long[oldTable.length * 2];
+		mask = table.length - 1;
+		size = 0;
+		for (long h : oldTable) {
+			if (h == 0) continue;
+			int slot = (int) h & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = h;
+			if (size == usedSlots.length) usedSlots = Arrays.copyOf(usedSlots, size * 2);
+			usedSlots[size++] = slot;
+		}
+	}
+
+	private static long hash(long h, Value v) {
+		h = hash(h, v.stringValue());
+		if (v instanceof IRI) return h * 31 + 1;
+		if (v instanceof BNode) return h * 31 + 2;
+		Literal l = (Literal) v;
+		h = hash(h * 31 + 3, l.getDatatype().stringValue());
+		// language tags are compared case-insensitively in rdf4j
+		if (l.getLanguage().isPresent()) h = hash(h, l.getLanguage().get().toLowerCase(Locale.ROOT));
+		return h;
+	}
+
+	private static long hash(long h, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			h = (h + s.charAt(i)) * 0x100000001b3L;
+		}
+		return (h + s.length()) * 0x9e3779b97f4a7c15L;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -1,7 +1,7 @@
 package org.petapico.npop.topic;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.nanopub.Nanopub;
 import org.eclipse.rdf4j.model.Resource;
@@ -10,38 +10,26 @@ import org.petapico.npop.Topic.TopicHandler;
 
 public class DefaultTopics implements TopicHandler {
 
-	private Map<String,Boolean> ignore = new HashMap<>();
+	private Set<String> ignore = new HashSet<>();
 
 	public DefaultTopics(String ignoreProperties) {
 		if (ignoreProperties != null) {
 			for (String s : ignoreProperties.trim().split("\\|")) {
-				if (!s.isEmpty()) ignore.put(s, true);
+				if (!s.isEmpty()) ignore.add(s);
 			}
 		}
 	}
 
 	@Override
 	public String getTopic(Nanopub np) {
-		Map<Resource,Integer> resourceCount = new HashMap<>();
+		SubjectCounter counter = SubjectCounter.forCurrentThread();
 		for (Statement st : np.getAssertion()) {
 			Resource subj = st.getSubject();
 			if (subj.equals(np.getUri())) continue;
-			if (ignore.containsKey(st.getPredicate().stringValue())) continue;
-			if (!resourceCount.containsKey(subj)) resourceCount.put(subj, 0);
-			resourceCount.put(subj, resourceCount.get(subj) + 1);
+			if (!ignore.isEmpty() && ignore.contains(st.getPredicate().stringValue())) continue;
+			counter.add(subj);
 		}
-		int max = 0;
-		Resource topic = null;
-		for (Resource r : resourceCount.keySet()) {
-			int c = resourceCount.get(r);
-			if (c > max) {
-				topic = r;
-				max = c;
-			} else if (c == max) {
-				topic = null;
-			}
-		}
-		return topic + "";
+		return counter.getTopSubject() + "";
 	}
 
 }
@@ -1,18 +1,20 @@
 package org.petapico.npop.topic;
 
 import org.nanopub.Nanopub;
+import org.petapico.npop.util.RewriteRules;
 
 public class DisgenetTopics extends DefaultTopics {
 
+	private static final RewriteRules rules = new RewriteRules()
+			.addRegexRule("^http://rdf.disgenet.org/gene-disease-association.ttl#", "http://rdf.disgenet.org/resource/gda/");
+
 	public DisgenetTopics() {
 		super("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
 	}
 
 	@Override
 	public String getTopic(Nanopub np) {
-		String t = super.getTopic(np);
-		t = t.replaceFirst("^http://rdf.disgenet.org/gene-disease-association.ttl#", "http://rdf.disgenet.org/resource/gda/");
-		return t;
+		return rules.apply(super.getTopic(np));
 	}
 
 }
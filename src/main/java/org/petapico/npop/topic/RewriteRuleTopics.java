@@ -0,0 +1,23 @@
+package org.petapico.npop.topic;
+
+import org.nanopub.Nanopub;
+import org.petapico.npop.Topic.TopicHandler;
+import org.petapico.npop.util.RewriteRules;
+
+/**
+ * Gets the topic by applying rewrite rules (e.g. from a rules file) to the nanopub URI.
+ */
+public class RewriteRuleTopics implements TopicHandler {
+
+	private RewriteRules rules;
+
+	public RewriteRuleTopics(RewriteRules rules) {
+		this.rules = rules;
+	}
+
+	@Override
+	public String getTopic(Nanopub np) {
+		return rules.apply(np.getUri().stringValue());
+	}
+
+}
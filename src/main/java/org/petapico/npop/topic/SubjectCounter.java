@@ -0,0 +1,103 @@
+package org.petapico.npop.topic;
+
+import org.eclipse.rdf4j.model.Resource;
+
+/**
+ * Counts statements per subject for one assertion at a time, in a small open-addressing table
+ * with int counters that is reused from one nanopub to the next. Instances are not thread-safe;
+ * forCurrentThread() gives each thread its own one.
+ */
+class SubjectCounter {
+
+	private static final ThreadLocal<SubjectCounter> instances = new ThreadLocal<SubjectCounter>() {
+
+		@Override
+		protected SubjectCounter initialValue() {
+			return new SubjectCounter();
+		}
+
+	};
+
+	/**
+	 * Returns the empty counter of the current thread.
+	 */
+	static SubjectCounter forCurrentThread() {
+		SubjectCounter c = instances.get();
+		c.clear();
+		return c;
+	}
+
+	private Resource[] keys = new Resource[64];
+	private int[] counts = new int[64];
+	// slots in use, in the order in which they were filled
+	private int[] usedSlots = new int[32];
+	private int size = 0;
+	private int mask = keys.length - 1;
+
+	void add(Resource r) {
+		int slot = slot(r);
+		while (keys[slot] != null) {
+			if (keys[slot].equals(r)) {
+				counts[slot]++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = r;
+		counts[slot] = 1;
+		usedSlots[size++] = slot;
+		if (size * 2 >= keys.length) grow();
+	}
+
+	/**
+	 * Returns the subject with the highest count, or null if there is none or if several subjects
+	 * share the highest count.
+	 */
+	Resource getTopSubject() {
+		int max = 0;
+		Resource top = null;
+		for (int i = 0; i < size; i++) {
+			int slot = usedSlots[i];
+			if (counts[slot] > max) {
+				top = keys[slot];
+				max = counts[slot];
+			} else if (counts[slot] == max) {
+				top = null;
+			}
+		}
+		return top;
+	}
+
+	private void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[usedSlots[i]] = null;
+		}
+		size = 0;
+	}
+
+	private void grow() {
+		Resource[] oldKeys = keys;
+		int[] oldCounts = counts;
+		int[] oldUsedSlots = usedSlots;
+		keys = new Resource[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		usedSlots = new int[oldKeys.length];
+		mask = keys.length - 1;
+		for (int i = 0; i < size; i++) {
+			Resource r = oldKeys[oldUsedSlots[i]];
+			int slot = slot(r);
+			while (keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = r;
+			counts[slot] = oldCounts[oldUsedSlots[i]];
+			usedSlots[i] = slot;
+		}
+	}
+
+	private int slot(Resource r) {
+		int h = r.hashCode() * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+}
@@ -2,16 +2,18 @@ package org.petapico.npop.topic;
 
 import org.nanopub.Nanopub;
 import org.petapico.npop.Topic.TopicHandler;
+import org.petapico.npop.util.RewriteRules;
 
 public class UriBaseTopics implements TopicHandler {
 
+	static final RewriteRules uriBaseRules = new RewriteRules()
+			.addRegexRule("RA.{43}$", "")
+			.addRegexRule("#.*$", "")
+			.addRegexRule("[\\./]$", "");
+
 	@Override
 	public String getTopic(Nanopub np) {
-		String s = np.getUri().stringValue();
-		s = s.replaceFirst("RA.{43}$", "");
-		s = s.replaceFirst("#.*$", "");
-		s = s.replaceFirst("[\\./]$", "");
-		return s;
+		return uriBaseRules.apply(np.getUri().stringValue());
 	}
 
 }
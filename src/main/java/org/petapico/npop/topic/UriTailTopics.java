@@ -2,17 +2,17 @@ package org.petapico.npop.topic;
 
 import org.nanopub.Nanopub;
 import org.petapico.npop.Topic.TopicHandler;
+import org.petapico.npop.util.RewriteRules;
 
 public class UriTailTopics implements TopicHandler {
 
+	private static final RewriteRules uriTailRules = new RewriteRules()
+			.addRegexRule("^.*/([^/]*)$", "$1");
+
 	@Override
 	public String getTopic(Nanopub np) {
-		String s = np.getUri().stringValue();
-		s = s.replaceFirst("RA.{43}$", "");
-		s = s.replaceFirst("#.*$", "");
-		s = s.replaceFirst("[\\./]$", "");
-		s = s.replaceFirst("^.*/([^/]*)$", "$1");
-		return s;
+		String s = UriBaseTopics.uriBaseRules.apply(np.getUri().stringValue());
+		return uriTailRules.apply(s);
 	}
 
 }
@@ -2,9 +2,7 @@ package org.petapico.npop.topic;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.nanopub.Nanopub;
 import org.eclipse.rdf4j.model.Resource;
@@ -14,52 +12,60 @@ import org.petapico.npop.Topic.TopicHandler;
 
 public class WikipathwaysTopics implements TopicHandler {
 
-	@Override
-	public String getTopic(Nanopub np) {
-		Map<Resource,Integer> resourceCount = new HashMap<>();
+	private static final String TYPE = RDF.TYPE.stringValue();
+
+	// reusable lists and string builder, one set per thread
+	private static class Scratch {
+
 		List<String> organismNames = new ArrayList<>();
 		List<String> pathwayIds = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+
+	}
+
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+
+	};
+
+	@Override
+	public String getTopic(Nanopub np) {
+		SubjectCounter counter = SubjectCounter.forCurrentThread();
+		Scratch s = scratch.get();
+		s.organismNames.clear();
+		s.pathwayIds.clear();
 		for (Statement st : np.getAssertion()) {
 			Resource subj = st.getSubject();
 			if (subj.equals(np.getUri())) continue;
 			String ps = st.getPredicate().stringValue();
-			if (ps.equals(RDF.TYPE.stringValue())) continue;
+			if (ps.equals(TYPE)) continue;
 			if (ps.equals("http://vocabularies.wikipathways.org/wp#pathwayOntologyTag")) continue;
 			if (ps.equals("http://purl.org/dc/terms/isPartOf")) {
-				pathwayIds.add(st.getObject().stringValue().replace("http://identifiers.org/wikipathways/", ""));
+				s.pathwayIds.add(st.getObject().stringValue().replace("http://identifiers.org/wikipathways/", ""));
 			}
 			if (ps.equals("http://vocabularies.wikipathways.org/wp#organismName")) {
-				organismNames.add(st.getObject().stringValue().replace(" ", "_"));
-			}
-			if (!resourceCount.containsKey(subj)) resourceCount.put(subj, 0);
-			resourceCount.put(subj, resourceCount.get(subj) + 1);
-		}
-		int max = 0;
-		Resource topic = null;
-		for (Resource r : resourceCount.keySet()) {
-			int c = resourceCount.get(r);
-			if (c > max) {
-				topic = r;
-				max = c;
-			} else if (c == max) {
-				topic = null;
+				s.organismNames.add(st.getObject().stringValue().replace(' ', '_'));
 			}
+			counter.add(subj);
 		}
-		String pathways = "";
-		if (!pathwayIds.isEmpty()) {
-			Collections.sort(pathwayIds);
-			for (String s : pathwayIds) {
-				pathways += "|" + s;
-			}
-		}
-		String organisms = "";
-		if (!organismNames.isEmpty()) {
-			Collections.sort(organismNames);
-			for (String s : organismNames) {
-				organisms += "|" + s;
-			}
+		StringBuilder sb = s.sb;
+		sb.setLength(0);
+		sb.append(counter.getTopSubject()).append(':');
+		append(sb, s.pathwayIds);
+		sb.append(':');
+		append(sb, s.organismNames);
+		return sb.toString();
+	}
+
+	private static void append(StringBuilder sb, List<String> values) {
+		if (values.size() > 1) Collections.sort(values);
+		for (String v : values) {
+			sb.append('|').append(v);
 		}
-		return topic + ":" + pathways + ":" + organisms;
 	}
 
 }
@@ -0,0 +1,170 @@
+package org.petapico.npop.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from 32-byte digests to non-negative long values. Keys are stored
+ * densely in insertion order; the hash table itself only holds int entry indexes. As keys are
+ * cryptographic digests, only their first eight bytes are hashed.
+ */
+public class DigestMap {
+
+	public static final int KEY_LENGTH = 32;
+
+	private long[] keys;
+	private long[] values;
+	private int[] table;
+	private int mask;
+	private int size;
+
+	public DigestMap() {
+		this(1024);
+	}
+
+	public DigestMap(int expectedSize) {
+		int entryCapacity = Math.max(16, expectedSize);
+		keys = new long[entryCapacity * 4];
+		values = new long[entryCapacity];
+		table = new int[tableSizeFor(entryCapacity)];
+		mask = table.length - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long get(byte[] key) {
+		return get(key, 0);
+	}
+
+	/**
+	 * Returns the value for the given key, or -1 if the key is not present.
+	 */
+	public long get(byte[] key, int offset) {
+		long k0 = readLong(key, offset);
+		long k1 = readLong(key, offset + 8);
+		long k2 = readLong(key, offset + 16);
+		long k3 = readLong(key, offset + 24);
+		int slot = (int) mix(k0) & mask;
+		while (true) {
+			int e = table[slot];
+			if (e == 0) return -1;
+			e--;
+			int p = e * 4;
+			if (keys[p] == k0 && keys[p + 1] == k1 && keys[p + 2] == k2 && keys[p + 3] == k3) {
+				return values[e];
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public boolean containsKey(byte[] key) {
+		return get(key, 0) >= 0;
+	}
+
+	public void put(byte[] key, long value) {
+		put(key, 0, value);
+	}
+
+	/**
+	 * Sets the value for the given key and returns the previous value, or -1 if the key was not
+	 * present before.
+	 */
+	public long put(byte[] key, int offset, long value) {
+		if (value < 0) throw new IllegalArgumentException("Negative value: " + value);
+		long k0 = readLong(key, offset);
+		long k1 = readLong(key, offset + 8);
+		long k2 = readLong(key, offset + 16);
+		long k3 = readLong(key, offset + 24);
+		int slot = (int) mix(k0) & mask;
+		while (true) {
+			int e = table[slot];
+			if (e == 0) break;
+			e--;
+			int p = e * 4;
+			if (keys[p] == k0 && keys[p + 1] == k1 && keys[p + 2] == k2 && keys[p + 3] == k3) {
+				long previous = values[e];
+				values[e] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == values.length) {
+			growEntries();
+		}
+		int p = size * 4;
+		keys[p] = k0;
+		keys[p + 1] = k1;
+		keys[p + 2] = k2;
+		keys[p + 3] = k3;
+		values[size] = value;
+		size++;
+		table[slot] = size;
+		if (size * 4L > table.length * 3L) {
+			rehash();
+		}
+		return -1;
+	}
+
+	public void getKey(int index, byte[] key, int offset) {
+		for (int i = 0; i < 4; i++) {
+			writeLong(keys[index * 4 + i], key, offset + i * 8);
+		}
+	}
+
+	public long getValue(int index) {
+		return values[index];
+	}
+
+	public long getMemoryUsage() {
+		return keys.length * 8L + values.length * 8L + table.length * 4L;
+	}
+
+	private void growEntries() {
+		int newCapacity = (int) Math.min(Integer.MAX_VALUE / 4, values.length * 2L);
+		if (newCapacity <= values.length) throw new IllegalStateException("Digest map is full");
+		keys = Arrays.copyOf(keys, newCapacity * 4);
+		values = Arrays.copyOf(values, newCapacity);
+	}
+
+	private void rehash() {
+		int[] newTable = new int[table.length * 2];
+		int newMask = newTable.length - 1;
+		for (int e = 0; e < size; e++) {
+			int slot = (int) mix(keys[e * 4]) & newMask;
+			while (newTable[slot] != 0) {
+				slot = (slot + 1) & newMask;
+			}
+			newTable[slot] = e + 1;
+		}
+		table = newTable;
+		mask = newMask;
+	}
+
+	static int tableSizeFor(int entries) {
+		int n = 16;
+		while (n < entries * 2L && n < (1 << 30)) n <<= 1;
+		return n;
+	}
+
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	static long readLong(byte[] b, int off) {
+		return ((b[off] & 0xffL) << 56) | ((b[off + 1] & 0xffL) << 48) | ((b[off + 2] & 0xffL) << 40) |
+				((b[off + 3] & 0xffL) << 32) | ((b[off + 4] & 0xffL) << 24) | ((b[off + 5] & 0xffL) << 16) |
+				((b[off + 6] & 0xffL) << 8) | (b[off + 7] & 0xffL);
+	}
+
+	static void writeLong(long v, byte[] b, int off) {
+		for (int i = 7; i >= 0; i--) {
+			b[off + i] = (byte) v;
+			v >>>= 8;
+		}
+	}
+
+}
@@ -0,0 +1,463 @@
+package org.petapico.npop.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts string keys within a memory budget. Keys are kept UTF-8 encoded in a StringStore, with
+ * their counts in a hash table of primitive arrays. When the budget is reached, the partial counts
+ * are written as a run sorted by key to a temporary file. In the end, the runs are merged (adding
+ * up the counts of equal keys), and the result is sorted by descending count with an external
+ * sort, or with a bounded heap if only the top entries are needed. Runs are merged in several
+ * passes if there are more than MAX_FAN_IN of them, so that only a bounded number of files are open
+ * at the same time.
+ */
+public class ExternalCounter {
+
+	public static interface Handler {
+
+		public void handle(String key, long count) throws IOException;
+
+	}
+
+	// Rough per-entry memory of a count table besides the key bytes, including the unused space of
+	// its growing arrays
+	private static final int ENTRY_OVERHEAD = 48;
+
+	private static final int MAX_FAN_IN = 64;
+
+	private static final Comparator<Entry> byKey = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			return StringStore.compareUtf8(e1.key, 0, e1.key.length, e2.key, 0, e2.key.length);
+		}
+
+	};
+
+	private static final Comparator<Entry> byCountDescending = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			if (e1.count != e2.count) return e1.count > e2.count ? -1 : 1;
+			return byKey.compare(e1, e2);
+		}
+
+	};
+
+	private long memoryBudget;
+	private File tempDir;
+	private CountTable counts = new CountTable(true);
+	private List<File> runs = new ArrayList<>();
+	private List<File> tempFiles = new ArrayList<>();
+
+	public ExternalCounter(long memoryBudget, File tempDir) {
+		this.memoryBudget = memoryBudget;
+		this.tempDir = tempDir;
+	}
+
+	public void add(String key) throws IOException {
+		add(key, 1);
+	}
+
+	public void add(String key, long count) throws IOException {
+		counts.add(key.getBytes(StandardCharsets.UTF_8), count);
+		if (counts.memoryUsage > memoryBudget) spill();
+	}
+
+	private void spill() throws IOException {
+		runs.add(writeRun(counts, false));
+		counts = new CountTable(true);
+	}
+
+	/**
+	 * Passes all keys with their total counts to the handler, ordered by descending count and then
+	 * by key. If limit is positive, only the first limit entries are passed. Temporary files are
+	 * deleted afterwards.
+	 */
+	public void forEachDescending(long limit, Handler handler) throws IOException {
+		try {
+			if (limit > 0) {
+				forEachTop(limit, handler);
+			} else {
+				forEachSorted(handler);
+			}
+		} finally {
+			for (File f : tempFiles) f.delete();
+			tempFiles.clear();
+			runs.clear();
+		}
+	}
+
+	private void forEachTop(long limit, Handler handler) throws IOException {
+		// min-heap with respect to output order, holding the best entries so far
+		final PriorityQueue<Entry> heap = new PriorityQueue<>(11, Collections.reverseOrder(byCountDescending));
+		final long l = limit;
+		forEachMerged(new EntryHandler() {
+
+			@Override
+			public void handle(Entry e) {
+				if (heap.size() < l) {
+					heap.add(e);
+				} else if (byCountDescending.compare(e, heap.peek()) < 0) {
+					heap.poll();
+					heap.add(e);
+				}
+			}
+
+		});
+		List<Entry> top = new ArrayList<>(heap);
+		Collections.sort(top, byCountDescending);
+		for (Entry e : top) {
+			handler.handle(e.getKey(), e.count);
+		}
+	}
+
+	private void forEachSorted(final Handler handler) throws IOException {
+		if (runs.isEmpty()) {
+			CountTable table = counts;
+			counts = new CountTable(true);
+			for (int e : table.sort(true)) {
+				handler.handle(table.keys.get(table.refs[e]), table.counts[e]);
+			}
+			return;
+		}
+		final List<File> sortedRuns = new ArrayList<>();
+		final CountTable[] buffer = new CountTable[] { new CountTable(false) };
+		forEachMerged(new EntryHandler() {
+
+			@Override
+			public void handle(Entry e) throws IOException {
+				buffer[0].add(e.key, e.count);
+				if (buffer[0].memoryUsage > memoryBudget) {
+					sortedRuns.add(writeRun(buffer[0], true));
+					buffer[0] = new CountTable(false);
+				}
+			}
+
+		});
+		if (sortedRuns.isEmpty()) {
+			for (int e : buffer[0].sort(true)) {
+				handler.handle(buffer[0].keys.get(buffer[0].refs[e]), buffer[0].counts[e]);
+			}
+			return;
+		}
+		if (buffer[0].size > 0) sortedRuns.add(writeRun(buffer[0], true));
+		buffer[0] = null;
+		merge(sortedRuns, byCountDescending, false, new EntryHandler() {
+
+			@Override
+			public void handle(Entry e) throws IOException {
+				handler.handle(e.getKey(), e.count);
+			}
+
+		});
+	}
+
+	private void forEachMerged(EntryHandler handler) throws IOException {
+		if (runs.isEmpty()) {
+			CountTable table = counts;
+			counts = new CountTable(true);
+			for (int e = 0; e < table.size; e++) {
+				handler.handle(new Entry(table.keys.getBytes(table.refs[e]), table.counts[e]));
+			}
+			return;
+		}
+		if (counts.size > 0) spill();
+		merge(runs, byKey, true, handler);
+	}
+
+	private void merge(List<File> runFiles, Comparator<Entry> comparator, boolean combine, EntryHandler handler) throws IOException {
+		while (runFiles.size() > MAX_FAN_IN) {
+			List<File> mergedRuns = new ArrayList<>();
+			for (int i = 0; i < runFiles.size(); i += MAX_FAN_IN) {
+				List<File> group = runFiles.subList(i, Math.min(i + MAX_FAN_IN, runFiles.size()));
+				if (group.size() == 1) {
+					mergedRuns.add(group.get(0));
+					continue;
+				}
+				File f = createRunFile();
+				final DataOutputStream out = openRun(f);
+				try {
+					mergeRuns(group, comparator, combine, new EntryHandler() {
+
+						@Override
+						public void handle(Entry e) throws IOException {
+							writeEntry(out, e.key, e.count);
+						}
+
+					});
+				} finally {
+					out.close();
+				}
+				for (File g : group) g.delete();
+				mergedRuns.add(f);
+			}
+			runFiles = mergedRuns;
+		}
+		mergeRuns(runFiles, comparator, combine, handler);
+	}
+
+	private void mergeRuns(List<File> runFiles, final Comparator<Entry> comparator, boolean combine, EntryHandler handler) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size(), new Comparator<RunReader>() {
+
+			@Override
+			public int compare(RunReader r1, RunReader r2) {
+				return comparator.compare(r1.current, r2.current);
+			}
+
+		});
+		List<RunReader> readers = new ArrayList<>();
+		try {
+			for (File f : runFiles) {
+				RunReader r = new RunReader(f);
+				readers.add(r);
+				if (r.next()) queue.add(r);
+			}
+			Entry pending = null;
+			while (!queue.isEmpty()) {
+				RunReader r = queue.poll();
+				Entry e = r.current;
+				if (r.next()) queue.add(r);
+				if (combine && pending != null && Arrays.equals(pending.key, e.key)) {
+					pending.count += e.count;
+					continue;
+				}
+				if (pending != null) handler.handle(pending);
+				pending = e;
+			}
+			if (pending != null) handler.handle(pending);
+		} finally {
+			for (RunReader r : readers) r.close();
+		}
+	}
+
+	private File writeRun(CountTable table, boolean byCount) throws IOException {
+		File f = createRunFile();
+		DataOutputStream out = openRun(f);
+		try {
+			for (int e : table.sort(byCount)) {
+				writeEntry(out, table.keys.getBytes(table.refs[e]), table.counts[e]);
+			}
+		} finally {
+			out.close();
+		}
+		return f;
+	}
+
+	private File createRunFile() throws IOException {
+		File f = File.createTempFile("npop-", ".run", tempDir);
+		f.deleteOnExit();
+		tempFiles.add(f);
+		return f;
+	}
+
+	private static DataOutputStream openRun(File f) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+	}
+
+	private static void writeEntry(DataOutputStream out, byte[] key, long count) throws IOException {
+		out.writeLong(count);
+		out.writeInt(key.length);
+		out.write(key);
+	}
+
+
+	/**
+	 * Counts of UTF-8 encoded keys. If equal keys are combined, an open-addressing hash table of
+	 * entry indexes is used to find them; otherwise, entries are only appended.
+	 */
+	private static class CountTable {
+
+		StringStore keys = new StringStore();
+		long[] refs = new long[1024];
+		long[] counts = new long[1024];
+		int size = 0;
+		long memoryUsage = 0;
+		private int[] hashes;
+		private int[] table;
+		private int mask;
+
+		CountTable(boolean combine) {
+			if (combine) {
+				hashes = new int[1024];
+				table = new int[2048];
+				mask = table.length - 1;
+			}
+		}
+
+		void add(byte[] key, long count) {
+			if (table == null) {
+				append(key, count);
+				return;
+			}
+			int h = hash(key);
+			int slot = h & mask;
+			while (true) {
+				int e = table[slot];
+				if (e == 0) break;
+				e--;
+				if (hashes[e] == h && keys.equals(refs[e], key)) {
+					counts[e] += count;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			hashes = ensureCapacity(hashes);
+			hashes[size] = h;
+			append(key, count);
+			table[slot] = size;
+			if (size * 2L > table.length) rehash();
+		}
+
+		private void append(byte[] key, long count) {
+			if (size == refs.length) {
+				refs = Arrays.copyOf(refs, refs.length * 2);
+				counts = Arrays.copyOf(counts, counts.length * 2);
+			}
+			refs[size] = keys.add(key, 0, key.length);
+			counts[size] = count;
+			size++;
+			memoryUsage += ENTRY_OVERHEAD + key.length;
+		}
+
+		private int[] ensureCapacity(int[] a) {
+			if (size < a.length) return a;
+			return Arrays.copyOf(a, a.length * 2);
+		}
+
+		private void rehash() {
+			int[] newTable = new int[table.length * 2];
+			int newMask = newTable.length - 1;
+			for (int e = 0; e < size; e++) {
+				int slot = hashes[e] & newMask;
+				while (newTable[slot] != 0) {
+					slot = (slot + 1) & newMask;
+				}
+				newTable[slot] = e + 1;
+			}
+			table = newTable;
+			mask = newMask;
+		}
+
+		private static int hash(byte[] key) {
+			int h = 0;
+			for (byte b : key) h = 31 * h + b;
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			return h;
+		}
+
+		/**
+		 * Returns the entry indexes sorted by key, or by descending count and then by key.
+		 */
+		int[] sort(boolean byCount) {
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) order[i] = i;
+			mergeSort(order, new int[size], 0, size, byCount);
+			return order;
+		}
+
+		private void mergeSort(int[] a, int[] tmp, int from, int to, boolean byCount) {
+			if (to - from <= 16) {
+				for (int i = from + 1; i < to; i++) {
+					int x = a[i];
+					int j = i - 1;
+					while (j >= from && compare(a[j], x, byCount) > 0) {
+						a[j + 1] = a[j];
+						j--;
+					}
+					a[j + 1] = x;
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			mergeSort(a, tmp, from, mid, byCount);
+			mergeSort(a, tmp, mid, to, byCount);
+			if (compare(a[mid - 1], a[mid], byCount) <= 0) return;
+			System.arraycopy(a, from, tmp, from, to - from);
+			int i = from, j = mid, k = from;
+			while (i < mid && j < to) {
+				a[k++] = (compare(tmp[j], tmp[i], byCount) < 0 ? tmp[j++] : tmp[i++]);
+			}
+			while (i < mid) a[k++] = tmp[i++];
+			while (j < to) a[k++] = tmp[j++];
+		}
+
+		private int compare(int e1, int e2, boolean byCount) {
+			if (byCount && counts[e1] != counts[e2]) return counts[e1] > counts[e2] ? -1 : 1;
+			return keys.compare(refs[e1], refs[e2]);
+		}
+
+	}
+
+
+	private static class Entry {
+
+		byte[] key;
+		long count;
+
+		Entry(byte[] key, long count) {
+			this.key = key;
+			this.count = count;
+		}
+
+		String getKey() {
+			return new String(key, StandardCharsets.UTF_8);
+		}
+
+	}
+
+
+	private static interface EntryHandler {
+
+		public void handle(Entry e) throws IOException;
+
+	}
+
+
+	private static class RunReader {
+
+		private DataInputStream in;
+		Entry current;
+
+		RunReader(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		}
+
+		boolean next() throws IOException {
+			long count;
+			try {
+				count = in.readLong();
+			} catch (EOFException ex) {
+				current = null;
+				return false;
+			}
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			current = new Entry(b, count);
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+	}
+
+}
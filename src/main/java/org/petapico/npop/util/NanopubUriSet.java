@@ -0,0 +1,213 @@
+package org.petapico.npop.util;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.trustyuri.ModuleDirectory;
+import net.trustyuri.TrustyUriModule;
+
+/**
+ * Compact set of nanopub URIs. For trusty URIs (ending in an artifact code with a known module ID
+ * and data part length), only a 128-bit key is stored: the first 126 bits of the hash in the
+ * artifact code, with a 64-bit hash of the rest of the URI mixed in, so the same artifact code
+ * under different URI bases gives different keys, and URIs that only look like trusty URIs still
+ * get different keys if they differ anywhere. The keys are kept
+ * in an open-addressing table of long pairs, optionally allocated outside of the Java heap. Other
+ * URIs are kept as strings in a regular hash set.
+ */
+public class NanopubUriSet {
+
+	private static final int SEGMENT_BITS = 24;
+	private static final int SEGMENT_LONGS = 1 << SEGMENT_BITS;
+
+	private static final int[] base64Values = new int[128];
+
+	static {
+		for (int i = 0; i < base64Values.length; i++) base64Values[i] = -1;
+		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for (int i = 0; i < chars.length(); i++) base64Values[chars.charAt(i)] = i;
+	}
+
+	private boolean offHeap;
+	private LongBuffer[] segments;
+	private long capacity;
+	private long mask;
+	private long keyCount = 0;
+	private boolean containsZeroKey = false;
+	private Set<String> otherUris = new HashSet<>();
+	private long otherUriChars = 0;
+
+	private long insertions = 0;
+	private long probes = 0;
+	private long maxProbes = 0;
+
+	// the two longs of the key of the last URI passed to getKey
+	private long k0, k1;
+
+	public NanopubUriSet(boolean offHeap) {
+		this(1 << 16, offHeap);
+	}
+
+	public NanopubUriSet(long expectedSize, boolean offHeap) {
+		this.offHeap = offHeap;
+		long c = 16;
+		while (c * 3 < expectedSize * 4) c <<= 1;
+		allocate(c);
+	}
+
+	/**
+	 * Adds the given URI, and returns true if it was not yet in the set.
+	 */
+	public boolean add(String uri) {
+		if (!getKey(uri)) {
+			if (!otherUris.add(uri)) return false;
+			otherUriChars += uri.length();
+			return true;
+		}
+		if (k0 == 0 && k1 == 0) {
+			if (containsZeroKey) return false;
+			containsZeroKey = true;
+			keyCount++;
+			return true;
+		}
+		if (!insert(k0, k1)) return false;
+		keyCount++;
+		if (keyCount * 4 > capacity * 3) resize(capacity * 2);
+		return true;
+	}
+
+	public boolean contains(String uri) {
+		if (!getKey(uri)) return otherUris.contains(uri);
+		if (k0 == 0 && k1 == 0) return containsZeroKey;
+		long slot = slot(k0, k1);
+		while (true) {
+			long a = get(slot * 2), b = get(slot * 2 + 1);
+			if (a == 0 && b == 0) return false;
+			if (a == k0 && b == k1) return true;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public long size() {
+		return keyCount + otherUris.size();
+	}
+
+	/**
+	 * Returns a one-line summary of the size, memory use and probe lengths of the set.
+	 */
+	public String getStats() {
+		long tableBytes = capacity * 16;
+		// rough estimate for String objects and hash set entries
+		long otherBytes = otherUris.size() * 100L + otherUriChars * 2;
+		return String.format("%d trusty URI keys in %d slots (%.1f MB %s), %d other URIs (about %.1f MB), " +
+				"average probes per insertion: %.2f, maximum: %d",
+				keyCount, capacity, tableBytes / 1048576.0, (offHeap ? "off-heap" : "on heap"),
+				otherUris.size(), otherBytes / 1048576.0,
+				(insertions == 0 ? 0.0 : ((double) probes) / insertions), maxProbes);
+	}
+
+	private boolean insert(long a0, long a1) {
+		long slot = slot(a0, a1);
+		long p = 1;
+		while (true) {
+			long a = get(slot * 2), b = get(slot * 2 + 1);
+			if (a == 0 && b == 0) break;
+			if (a == a0 && b == a1) return false;
+			slot = (slot + 1) & mask;
+			p++;
+		}
+		set(slot * 2, a0);
+		set(slot * 2 + 1, a1);
+		insertions++;
+		probes += p;
+		if (p > maxProbes) maxProbes = p;
+		return true;
+	}
+
+	/**
+	 * Computes the key of the given URI into k0 and k1, and returns false if it is not a trusty
+	 * URI.
+	 */
+	private boolean getKey(String uri) {
+		int end = uri.length();
+		int start = end;
+		while (start > 0) {
+			char c = uri.charAt(start - 1);
+			if (c >= 128 || base64Values[c] < 0) break;
+			start--;
+		}
+		if (end - start < 2) return false;
+		TrustyUriModule module = ModuleDirectory.getModule(uri.substring(start, start + 2));
+		if (module == null || end - start - 2 != module.getDataPartLength() || module.getDataPartLength() < 22) return false;
+		long hi = 0, lo = 0;
+		// 21 characters of the hash after the two-character module ID give 126 bits, which fit
+		// into the two longs
+		for (int i = start + 2; i < start + 23; i++) {
+			int v = base64Values[uri.charAt(i)];
+			hi = (hi << 6) | (lo >>> 58);
+			lo = (lo << 6) | v;
+		}
+		// the URI base, the module ID and the rest of the hash
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < start + 2; i++) {
+			h ^= uri.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		for (int i = start + 23; i < end; i++) {
+			h ^= uri.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		k0 = hi;
+		k1 = lo ^ DigestMap.mix(h);
+		return true;
+	}
+
+	private long slot(long a, long b) {
+		// the artifact code bits are already uniformly distributed
+		return (a ^ Long.rotateLeft(b, 32)) & mask;
+	}
+
+	private void resize(long newCapacity) {
+		LongBuffer[] oldSegments = segments;
+		long oldCapacity = capacity;
+		allocate(newCapacity);
+		for (long i = 0; i < oldCapacity * 2; i += 2) {
+			long a = oldSegments[(int) (i >>> SEGMENT_BITS)].get((int) (i & (SEGMENT_LONGS - 1)));
+			long b = oldSegments[(int) ((i + 1) >>> SEGMENT_BITS)].get((int) ((i + 1) & (SEGMENT_LONGS - 1)));
+			if (a == 0 && b == 0) continue;
+			long slot = slot(a, b);
+			while (get(slot * 2) != 0 || get(slot * 2 + 1) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			set(slot * 2, a);
+			set(slot * 2 + 1, b);
+		}
+	}
+
+	private void allocate(long newCapacity) {
+		capacity = newCapacity;
+		mask = capacity - 1;
+		long longs = capacity * 2;
+		int segmentCount = (int) ((longs + SEGMENT_LONGS - 1) / SEGMENT_LONGS);
+		segments = new LongBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			int n = (int) Math.min(SEGMENT_LONGS, longs - (long) i * SEGMENT_LONGS);
+			if (offHeap) {
+				segments[i] = ByteBuffer.allocateDirect(n * 8).asLongBuffer();
+			} else {
+				segments[i] = LongBuffer.wrap(new long[n]);
+			}
+		}
+	}
+
+	private long get(long i) {
+		return segments[(int) (i >>> SEGMENT_BITS)].get((int) (i & (SEGMENT_LONGS - 1)));
+	}
+
+	private void set(long i, long v) {
+		segments[(int) (i >>> SEGMENT_BITS)].put((int) (i & (SEGMENT_LONGS - 1)), v);
+	}
+
+}
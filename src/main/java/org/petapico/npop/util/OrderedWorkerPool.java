@@ -0,0 +1,109 @@
+package org.petapico.npop.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs compute() on a fixed pool of worker threads and hands the results to handleResult() on the
+ * submitting thread, in submission order. At most maxPending inputs are in flight, so the submitting
+ * (parser) thread blocks on the oldest result when the workers fall behind.
+ */
+public abstract class OrderedWorkerPool<I,O> {
+
+	private ExecutorService executor;
+	private Deque<Pending> pending = new ArrayDeque<>();
+	private int maxPending;
+
+	public OrderedWorkerPool(int threads) {
+		this(threads, threads * 8);
+	}
+
+	public OrderedWorkerPool(int threads, int maxPending) {
+		if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+		this.maxPending = Math.max(maxPending, threads);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "npop-worker-" + (count++));
+				t.setDaemon(true);
+				return t;
+			}
+
+		});
+	}
+
+	protected abstract O compute(I input) throws Exception;
+
+	protected abstract void handleResult(I input, O output) throws Exception;
+
+	public void submit(final I input) {
+		while (!pending.isEmpty() && (pending.size() >= maxPending || pending.peek().future.isDone())) {
+			handleNext();
+		}
+		Future<O> future = executor.submit(new Callable<O>() {
+
+			@Override
+			public O call() throws Exception {
+				return compute(input);
+			}
+
+		});
+		pending.add(new Pending(input, future));
+	}
+
+	public void finish() {
+		try {
+			while (!pending.isEmpty()) {
+				handleNext();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void handleNext() {
+		Pending p = pending.poll();
+		try {
+			handleResult(p.input, p.future.get());
+		} catch (ExecutionException ex) {
+			executor.shutdownNow();
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new RuntimeException(ex.getCause());
+		} catch (InterruptedException ex) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		} catch (RuntimeException ex) {
+			executor.shutdownNow();
+			throw ex;
+		} catch (Exception ex) {
+			executor.shutdownNow();
+			throw new RuntimeException(ex);
+		}
+	}
+
+
+	private class Pending {
+
+		I input;
+		Future<O> future;
+
+		Pending(I input, Future<O> future) {
+			this.input = input;
+			this.future = future;
+		}
+
+	}
+
+}
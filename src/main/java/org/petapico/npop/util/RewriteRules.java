@@ -0,0 +1,254 @@
+package org.petapico.npop.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ordered list of string rewrite rules, compiled once and then applied to many strings (typically
+ * IRIs). A rule is either a prefix rule, which replaces a literal prefix, or a regex rule, which
+ * replaces the first match of a regular expression (like String.replaceFirst, with $1 etc. in
+ * the replacement). In a rules file, each line holds one rule:
+ *
+ *   prefix http://purl.obolibrary.org/obo/eco.owl# http://purl.obolibrary.org/obo/
+ *   regex ^http://rdf.disgenet.org/v[0-9.]+/void/ http://rdf.disgenet.org/vx.x.x/void/
+ *   regex #.*$
+ *
+ * The parts are separated by whitespace, a missing replacement stands for the empty string, and
+ * empty lines and lines starting with # are ignored.
+ *
+ * The rules are indexed by their literal prefix (for regex rules starting with ^, the literal
+ * characters up to the first special character) in a trie, so for a given string only the rules
+ * whose prefix matches are tried. Once built, the rules can be used from several threads.
+ */
+public class RewriteRules {
+
+	private static final String REGEX_SPECIAL_CHARS = "\\.[]{}()<>*+-=!?^$|";
+
+	private List<String> prefixes = new ArrayList<>();
+	private List<String> replacements = new ArrayList<>();
+	// null for prefix rules
+	private List<Pattern> patterns = new ArrayList<>();
+
+	// trie over the rule prefixes; each node has the sorted IDs of the rules with its prefix
+	private int nodeCount = 1;
+	private int[] firstChild = new int[64];
+	private int[] nextSibling = new int[64];
+	private char[] label = new char[64];
+	private int[][] nodeRules = new int[64][];
+
+	public RewriteRules() {
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+	}
+
+	public static RewriteRules load(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			RewriteRules rules = new RewriteRules();
+			int lineNumber = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				try {
+					rules.addRule(line);
+				} catch (IllegalArgumentException ex) {
+					throw new IllegalArgumentException("Invalid rule in line " + lineNumber + " of " + file + ": " + ex.getMessage());
+				}
+			}
+			return rules;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Adds a rule in the syntax of rules files (see above); empty and comment lines are ignored.
+	 */
+	public RewriteRules addRule(String line) {
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#")) return this;
+		String[] parts = line.split("\\s+");
+		if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("Expected type, pattern and replacement: " + line);
+		String replacement = (parts.length == 3 ? parts[2] : "");
+		if (parts[0].equals("prefix")) {
+			return addPrefixRule(parts[1], replacement);
+		} else if (parts[0].equals("regex")) {
+			return addRegexRule(parts[1], replacement);
+		} else {
+			throw new IllegalArgumentException("Unknown rule type '" + parts[0] + "' (expected prefix or regex)");
+		}
+	}
+
+	public RewriteRules addPrefixRule(String prefix, String replacement) {
+		add(prefix, replacement, null);
+		return this;
+	}
+
+	public RewriteRules addRegexRule(String regex, String replacement) {
+		add(getLiteralPrefix(regex), replacement, Pattern.compile(regex));
+		return this;
+	}
+
+	public int size() {
+		return prefixes.size();
+	}
+
+	/**
+	 * Applies all rules in order, each to the result of the previous ones.
+	 */
+	public String apply(String s) {
+		int rule = nextCandidate(s, 0);
+		while (rule >= 0) {
+			String r = apply(rule, s);
+			if (r != null) s = r;
+			rule = nextCandidate(s, rule + 1);
+		}
+		return s;
+	}
+
+	/**
+	 * Applies only the first rule that matches, and returns the given string instance itself if
+	 * none does.
+	 */
+	public String applyFirst(String s) {
+		int rule = nextCandidate(s, 0);
+		while (rule >= 0) {
+			String r = apply(rule, s);
+			if (r != null) return r;
+			rule = nextCandidate(s, rule + 1);
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the result of the given rule, or null if it does not match.
+	 */
+	private String apply(int rule, String s) {
+		Pattern p = patterns.get(rule);
+		if (p == null) {
+			// the trie has already checked the prefix
+			return replacements.get(rule) + s.substring(prefixes.get(rule).length());
+		}
+		Matcher m = p.matcher(s);
+		if (!m.find()) return null;
+		StringBuffer sb = new StringBuffer(s.length() + 16);
+		m.appendReplacement(sb, replacements.get(rule));
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the lowest rule ID that is at least minRule and whose prefix is a prefix of the
+	 * given string, or -1 if there is none.
+	 */
+	private int nextCandidate(String s, int minRule) {
+		int best = firstAtLeast(nodeRules[0], minRule, -1);
+		int node = 0;
+		for (int i = 0; i < s.length(); i++) {
+			node = getChild(node, s.charAt(i));
+			if (node < 0) break;
+			best = firstAtLeast(nodeRules[node], minRule, best);
+		}
+		return best;
+	}
+
+	private static int firstAtLeast(int[] rules, int minRule, int best) {
+		if (rules == null) return best;
+		for (int r : rules) {
+			if (r >= minRule) return (best < 0 || r < best ? r : best);
+		}
+		return best;
+	}
+
+	private void add(String prefix, String replacement, Pattern pattern) {
+		int rule = prefixes.size();
+		prefixes.add(prefix);
+		replacements.add(replacement);
+		patterns.add(pattern);
+		int node = 0;
+		for (int i = 0; i < prefix.length(); i++) {
+			int child = getChild(node, prefix.charAt(i));
+			if (child < 0) child = addChild(node, prefix.charAt(i));
+			node = child;
+		}
+		int[] r = nodeRules[node];
+		r = (r == null ? new int[1] : Arrays.copyOf(r, r.length + 1));
+		r[r.length - 1] = rule;
+		nodeRules[node] = r;
+	}
+
+	private int getChild(int node, char c) {
+		for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+			if (label[child] == c) return child;
+		}
+		return -1;
+	}
+
+	private int addChild(int parent, char c) {
+		if (nodeCount == label.length) {
+			int n = label.length * 2;
+			firstChild = Arrays.copyOf(firstChild, n);
+			nextSibling = Arrays.copyOf(nextSibling, n);
+			Arrays.fill(firstChild, nodeCount, n, -1);
+			Arrays.fill(nextSibling, nodeCount, n, -1);
+			label = Arrays.copyOf(label, n);
+			nodeRules = Arrays.copyOf(nodeRules, n);
+		}
+		int node = nodeCount++;
+		label[node] = c;
+		nextSibling[node] = firstChild[parent];
+		firstChild[parent] = node;
+		return node;
+	}
+
+	/**
+	 * Returns the literal characters that every match of the given regex starts with, if it is
+	 * anchored with ^, and otherwise the empty string.
+	 */
+	static String getLiteralPrefix(String regex) {
+		if (!regex.startsWith("^") || hasTopLevelAlternation(regex)) return "";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (REGEX_SPECIAL_CHARS.indexOf(c) >= 0) {
+				// a quantifier can make the preceding character optional
+				if ((c == '*' || c == '?' || c == '{') && sb.length() > 0) sb.setLength(sb.length() - 1);
+				break;
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static boolean hasTopLevelAlternation(String regex) {
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (inClass) {
+				if (c == ']') inClass = false;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
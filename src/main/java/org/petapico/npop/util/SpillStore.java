@@ -0,0 +1,118 @@
+package org.petapico.npop.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only temporary file of byte records, which is memory-mapped for reading once all records
+ * are written. Records are addressed by the offset returned by append(). Records do not cross the
+ * boundaries of the mapped segments, so they can be copied out of a single mapped buffer.
+ */
+public class SpillStore {
+
+	private static final long SEGMENT_SIZE = 1L << 30;
+	private static final byte[] padding = new byte[1 << 16];
+
+	private File file;
+	private DataOutputStream out;
+	private long position = 0;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer[] segments;
+	private byte[] copyBuffer = new byte[1 << 16];
+
+	public SpillStore(File dir) throws IOException {
+		file = File.createTempFile("npop-", ".spill", dir);
+		file.deleteOnExit();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	}
+
+	public long append(byte[] b) throws IOException {
+		return append(b, 0, b.length);
+	}
+
+	public long append(byte[] b, int offset, int length) throws IOException {
+		if (out == null) throw new IllegalStateException("Spill store is read-only");
+		long recordLength = 4L + length;
+		long segmentRemaining = SEGMENT_SIZE - position % SEGMENT_SIZE;
+		if (recordLength > segmentRemaining && recordLength <= SEGMENT_SIZE) {
+			for (long i = 0; i < segmentRemaining; i += padding.length) {
+				out.write(padding, 0, (int) Math.min(padding.length, segmentRemaining - i));
+			}
+			position += segmentRemaining;
+		}
+		long ref = position;
+		out.writeInt(length);
+		out.write(b, offset, length);
+		position += recordLength;
+		return ref;
+	}
+
+	public long getByteCount() {
+		return position;
+	}
+
+	private void finishWriting() throws IOException {
+		out.close();
+		out = null;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		int segmentCount = (int) ((position + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		segments = new MappedByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long start = i * SEGMENT_SIZE;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, position - start));
+		}
+	}
+
+	public void copyTo(long ref, OutputStream os) throws IOException {
+		if (out != null) finishWriting();
+		ByteBuffer segment = segments[(int) (ref / SEGMENT_SIZE)];
+		int pos = (int) (ref % SEGMENT_SIZE);
+		int length = segment.getInt(pos);
+		if (pos + 4L + length > segment.capacity()) {
+			// oversized record spanning several segments
+			copyFromChannel(ref + 4, length, os);
+			return;
+		}
+		ByteBuffer b = segment.duplicate();
+		b.position(pos + 4);
+		int remaining = length;
+		while (remaining > 0) {
+			int n = Math.min(remaining, copyBuffer.length);
+			b.get(copyBuffer, 0, n);
+			os.write(copyBuffer, 0, n);
+			remaining -= n;
+		}
+	}
+
+	private void copyFromChannel(long position, int length, OutputStream os) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(copyBuffer);
+		long p = position;
+		long end = position + length;
+		while (p < end) {
+			b.clear();
+			b.limit((int) Math.min(copyBuffer.length, end - p));
+			int n = channel.read(b, p);
+			if (n < 0) throw new IOException("Unexpected end of spill file");
+			os.write(copyBuffer, 0, n);
+			p += n;
+		}
+	}
+
+	public void close() throws IOException {
+		if (out != null) out.close();
+		if (raf != null) raf.close();
+		segments = null;
+		file.delete();
+	}
+
+}
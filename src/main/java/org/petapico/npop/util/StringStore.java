@@ -0,0 +1,134 @@
+package org.petapico.npop.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Append-only store of UTF-8 encoded strings in large byte pages, to avoid keeping millions of
+ * String objects on the heap. Strings are addressed by the long reference returned by add().
+ */
+public class StringStore {
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final int PAGE_SIZE = 1 << 22;
+
+	private byte[][] pages = new byte[16][];
+	private int pageCount = 0;
+	private int pagePos = PAGE_SIZE;
+	private long byteCount = 0;
+
+	public long add(String s) {
+		byte[] b = s.getBytes(utf8);
+		return add(b, 0, b.length);
+	}
+
+	public long add(byte[] b, int offset, int length) {
+		int needed = length + 5;
+		if (pageCount == 0 || pagePos + needed > pages[pageCount - 1].length) {
+			if (pageCount == pages.length) {
+				pages = Arrays.copyOf(pages, pages.length * 2);
+			}
+			pages[pageCount++] = new byte[Math.max(PAGE_SIZE, needed)];
+			pagePos = 0;
+		}
+		byte[] page = pages[pageCount - 1];
+		long ref = ((long) (pageCount - 1) << 32) | pagePos;
+		int l = length;
+		while (l >= 0x80) {
+			page[pagePos++] = (byte) (l | 0x80);
+			l >>>= 7;
+		}
+		page[pagePos++] = (byte) l;
+		System.arraycopy(b, offset, page, pagePos, length);
+		pagePos += length;
+		byteCount += length;
+		return ref;
+	}
+
+	public String get(long ref) {
+		byte[] page = pages[(int) (ref >>> 32)];
+		int pos = (int) ref;
+		return new String(page, skipLength(page, pos), readLength(page, pos), utf8);
+	}
+
+	public byte[] getBytes(long ref) {
+		byte[] page = pages[(int) (ref >>> 32)];
+		int pos = (int) ref;
+		int start = skipLength(page, pos);
+		return Arrays.copyOfRange(page, start, start + readLength(page, pos));
+	}
+
+	/**
+	 * Returns whether the string with the given reference has the given UTF-8 encoding.
+	 */
+	public boolean equals(long ref, byte[] b) {
+		byte[] page = pages[(int) (ref >>> 32)];
+		int pos = (int) ref;
+		if (readLength(page, pos) != b.length) return false;
+		int start = skipLength(page, pos);
+		for (int i = 0; i < b.length; i++) {
+			if (page[start + i] != b[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares two stored strings in the order of String.compareTo, without decoding them.
+	 */
+	public int compare(long ref1, long ref2) {
+		byte[] page1 = pages[(int) (ref1 >>> 32)];
+		byte[] page2 = pages[(int) (ref2 >>> 32)];
+		int pos1 = (int) ref1;
+		int pos2 = (int) ref2;
+		return compareUtf8(page1, skipLength(page1, pos1), readLength(page1, pos1),
+				page2, skipLength(page2, pos2), readLength(page2, pos2));
+	}
+
+	/**
+	 * Compares two UTF-8 encoded strings in the order of String.compareTo. The byte order of UTF-8
+	 * is the code point order, which differs from the UTF-16 order of String.compareTo only for
+	 * supplementary characters compared to characters from U+E000 to U+FFFF.
+	 */
+	public static int compareUtf8(byte[] b1, int offset1, int length1, byte[] b2, int offset2, int length2) {
+		int n = Math.min(length1, length2);
+		for (int i = 0; i < n; i++) {
+			int c1 = b1[offset1 + i] & 0xff;
+			int c2 = b2[offset2 + i] & 0xff;
+			if (c1 == c2) continue;
+			// lead bytes of supplementary characters (surrogate pairs in UTF-16) and of U+E000 to U+FFFF:
+			if (c1 >= 0xf0 && (c2 == 0xee || c2 == 0xef)) return -1;
+			if (c2 >= 0xf0 && (c1 == 0xee || c1 == 0xef)) return 1;
+			return c1 - c2;
+		}
+		return length1 - length2;
+	}
+
+	private static int readLength(byte[] page, int pos) {
+		int length = 0;
+		int shift = 0;
+		while (true) {
+			byte b = page[pos++];
+			length |= (b & 0x7f) << shift;
+			if (b >= 0) return length;
+			shift += 7;
+		}
+	}
+
+	private static int skipLength(byte[] page, int pos) {
+		while (page[pos] < 0) pos++;
+		return pos + 1;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	public long getMemoryUsage() {
+		long m = 0;
+		for (int i = 0; i < pageCount; i++) {
+			m += pages[i].length;
+		}
+		return m;
+	}
+
+}
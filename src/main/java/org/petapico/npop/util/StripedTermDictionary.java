@@ -0,0 +1,72 @@
+package org.petapico.npop.util;
+
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Thread-safe term dictionary for several threads adding terms at the same time. The terms are
+ * split by hash into stripes, each of which is a TermDictionary with its own lock. IDs are unique
+ * but not dense: a term with ID i in stripe s has the ID i * stripeCount + s.
+ */
+public class StripedTermDictionary {
+
+	private TermDictionary[] stripes;
+	private int shift;
+
+	/**
+	 * The number of stripes is rounded up to a power of two.
+	 */
+	public StripedTermDictionary(int stripeCount) {
+		int bits = 0;
+		while ((1 << bits) < stripeCount) bits++;
+		stripes = new TermDictionary[1 << bits];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new TermDictionary();
+		}
+		shift = 32 - bits;
+	}
+
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Returns the ID of the given value, adding it to the dictionary if it is not yet there.
+	 */
+	public int add(Value v) {
+		// the high bits select the stripe, the low bits the slot within the stripe
+		int s = (shift == 32 ? 0 : TermDictionary.mix(v.hashCode()) >>> shift);
+		TermDictionary d = stripes[s];
+		int i;
+		synchronized (d) {
+			i = d.add(v);
+		}
+		return i * stripes.length + s;
+	}
+
+	/**
+	 * Returns the number of terms in the given stripe. The IDs of these terms are
+	 * i * getStripeCount() + stripe for i from 0 to this size minus 1.
+	 */
+	public int getStripeSize(int stripe) {
+		TermDictionary d = stripes[stripe];
+		synchronized (d) {
+			return d.size();
+		}
+	}
+
+	public long size() {
+		long size = 0;
+		for (int s = 0; s < stripes.length; s++) {
+			size += getStripeSize(s);
+		}
+		return size;
+	}
+
+	public Value getTerm(int id) {
+		TermDictionary d = stripes[id & (stripes.length - 1)];
+		synchronized (d) {
+			return d.getTerm(id / stripes.length);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.petapico.npop.util;
+
+import java.util.Arrays;
+
+import org.eclipse.rdf4j.model.Value;
+
+/**
+ * Dictionary that assigns dense int IDs (0, 1, 2, ...) to RDF values in the order of their first
+ * occurrence. Each distinct value is kept only once, and the lookup table is an open-addressing
+ * int array, so no boxed integers or map entries are created per term.
+ */
+public class TermDictionary {
+
+	private Value[] terms;
+	private int[] hashes;
+	private int[] table;
+	private int mask;
+	private int size;
+
+	public TermDictionary() {
+		this(1024);
+	}
+
+	public TermDictionary(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		terms = new Value[capacity];
+		hashes = new int[capacity];
+		table = new int[DigestMap.tableSizeFor(capacity)];
+		mask = table.length - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the ID of the given value, or -1 if it is not in the dictionary.
+	 */
+	public int get(Value v) {
+		int h = v.hashCode();
+		int slot = mix(h) & mask;
+		while (true) {
+			int e = table[slot];
+			if (e == 0) return -1;
+			e--;
+			if (hashes[e] == h && (terms[e] == v || terms[e].equals(v))) return e;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the ID of the given value, adding it to the dictionary if it is not yet there. A
+	 * newly added value gets the ID size()-1.
+	 */
+	public int add(Value v) {
+		int h = v.hashCode();
+		int slot = mix(h) & mask;
+		while (true) {
+			int e = table[slot];
+			if (e == 0) break;
+			e--;
+			if (hashes[e] == h && (terms[e] == v || terms[e].equals(v))) return e;
+			slot = (slot + 1) & mask;
+		}
+		if (size == terms.length) {
+			terms = Arrays.copyOf(terms, terms.length * 2);
+			hashes = Arrays.copyOf(hashes, hashes.length * 2);
+		}
+		int id = size++;
+		terms[id] = v;
+		hashes[id] = h;
+		table[slot] = id + 1;
+		if (size * 4L > table.length * 3L) rehash(table.length * 2);
+		return id;
+	}
+
+	public Value getTerm(int id) {
+		if (id < 0 || id >= size) throw new IndexOutOfBoundsException("No term with ID " + id);
+		return terms[id];
+	}
+
+	public void clear() {
+		Arrays.fill(terms, 0, size, null);
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	private void rehash(int newTableSize) {
+		table = new int[newTableSize];
+		mask = newTableSize - 1;
+		for (int e = 0; e < size; e++) {
+			int slot = mix(hashes[e]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = e + 1;
+		}
+	}
+
+	static int mix(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.petapico.npop.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table that counts triples of int IDs (as assigned by a TermDictionary).
+ * Triples are stored densely in insertion order as three ints each, with their counts in a
+ * parallel int array.
+ */
+public class TripleCountTable {
+
+	private int[] triples;
+	private int[] counts;
+	private int[] table;
+	private int mask;
+	private int size;
+
+	public TripleCountTable() {
+		this(1024);
+	}
+
+	public TripleCountTable(int expectedSize) {
+		int capacity = Math.max(16, expectedSize);
+		triples = new int[capacity * 3];
+		counts = new int[capacity];
+		table = new int[DigestMap.tableSizeFor(capacity)];
+		mask = table.length - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Increments the count of the given triple and returns its entry index.
+	 */
+	public int increment(int s, int p, int o) {
+		int slot = hash(s, p, o) & mask;
+		while (true) {
+			int e = table[slot];
+			if (e == 0) break;
+			e--;
+			int t = e * 3;
+			if (triples[t] == s && triples[t + 1] == p && triples[t + 2] == o) {
+				counts[e]++;
+				return e;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == counts.length) {
+			triples = Arrays.copyOf(triples, triples.length * 2);
+			counts = Arrays.copyOf(counts, counts.length * 2);
+		}
+		int e = size++;
+		triples[e * 3] = s;
+		triples[e * 3 + 1] = p;
+		triples[e * 3 + 2] = o;
+		counts[e] = 1;
+		table[slot] = e + 1;
+		if (size * 4L > table.length * 3L) rehash(table.length * 2);
+		return e;
+	}
+
+	public int getSubject(int entry) {
+		return triples[entry * 3];
+	}
+
+	public int getPredicate(int entry) {
+		return triples[entry * 3 + 1];
+	}
+
+	public int getObject(int entry) {
+		return triples[entry * 3 + 2];
+	}
+
+	public int getCount(int entry) {
+		return counts[entry];
+	}
+
+	/**
+	 * Returns the entry indexes ordered by descending count (ties in insertion order).
+	 */
+	public int[] getEntriesByCount() {
+		long[] sortKeys = new long[size];
+		for (int e = 0; e < size; e++) {
+			sortKeys[e] = ((long) (Integer.MAX_VALUE - counts[e]) << 32) | e;
+		}
+		Arrays.sort(sortKeys);
+		int[] entries = new int[size];
+		for (int i = 0; i < size; i++) {
+			entries[i] = (int) sortKeys[i];
+		}
+		return entries;
+	}
+
+	private void rehash(int newTableSize) {
+		table = new int[newTableSize];
+		mask = newTableSize - 1;
+		for (int e = 0; e < size; e++) {
+			int t = e * 3;
+			int slot = hash(triples[t], triples[t + 1], triples[t + 2]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = e + 1;
+		}
+	}
+
+	private static int hash(int s, int p, int o) {
+		long h = (s * 0x9e3779b97f4a7c15L) ^ (p * 0xc2b2ae3d27d4eb4fL) ^ (o * 0x165667b19e3779f9L);
+		return (int) DigestMap.mix(h);
+	}
+
+}